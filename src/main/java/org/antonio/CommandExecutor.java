@@ -0,0 +1,244 @@
+package org.antonio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Esecuzione centralizzata dei comandi di sistema (systemctl, smbpasswd, pdbedit, mount, useradd, ...).
+// Ogni comando gira in modo asincrono e restituisce un CompletableFuture; stdout e stderr vengono
+// sempre svuotati in buffer di dimensione limitata, così un processo molto verboso non si blocca
+// sulla pipe piena. Ogni comando ha un timeout, il numero di processi contemporanei è limitato e
+// la durata di ogni esecuzione viene registrata.
+public final class CommandExecutor {
+    public static final long DEFAULT_TIMEOUT_MILLIS = 60_000;
+    private static final int MAX_OUTPUT_BYTES = 256 * 1024; // Per ogni flusso; il resto viene letto e scartato
+    private static final int DEFAULT_MAX_CONCURRENT = 8;
+    private static final int HISTORY_SIZE = 200;
+    private static final long KILL_GRACE_MILLIS = 2_000; // Attesa dopo SIGTERM prima di SIGKILL
+
+    private static final CommandExecutor DEFAULT = new CommandExecutor(DEFAULT_MAX_CONCURRENT);
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final ArrayDeque<Result> history; // Ultime esecuzioni, per diagnostica
+
+    public CommandExecutor(int maxConcurrent) {
+        this.executor = createExecutor();
+        this.permits = new Semaphore(maxConcurrent, true);
+        this.history = new ArrayDeque<>();
+    }
+
+    public static CommandExecutor getDefault() {
+        return DEFAULT;
+    }
+
+    // Esito di un comando
+    public static final class Result {
+        private final List<String> command;
+        private final int exitCode;
+        private final String stdout;
+        private final String stderr;
+        private final boolean timedOut;
+        private final long durationMillis;
+
+        Result(List<String> command, int exitCode, String stdout, String stderr, boolean timedOut, long durationMillis) {
+            this.command = command;
+            this.exitCode = exitCode;
+            this.stdout = stdout;
+            this.stderr = stderr;
+            this.timedOut = timedOut;
+            this.durationMillis = durationMillis;
+        }
+
+        public List<String> getCommand() {
+            return command;
+        }
+
+        public int getExitCode() {
+            return exitCode;
+        }
+
+        public String getStdout() {
+            return stdout;
+        }
+
+        public String getStderr() {
+            return stderr;
+        }
+
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        public boolean isSuccess() {
+            return !timedOut && exitCode == 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.join(" ", command) + " -> " + (timedOut ? "timeout" : "exit " + exitCode) + " in " + durationMillis + " ms";
+        }
+    }
+
+    // Avvia il comando in modo asincrono; "input" (se non null) viene scritto sullo standard input
+    public CompletableFuture<Result> submit(List<String> command, String input, long timeoutMillis) {
+        List<String> copy = Collections.unmodifiableList(new ArrayList<>(command));
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return execute(copy, input, timeoutMillis);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    public Result run(List<String> command) throws IOException {
+        return run(command, null, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    // Esegue il comando e ne attende l'esito; un codice di uscita diverso da zero non è un errore
+    public Result run(List<String> command, String input, long timeoutMillis) throws IOException {
+        try {
+            return submit(command, input, timeoutMillis).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Comando interrotto: " + String.join(" ", command), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Errore durante l'esecuzione di: " + String.join(" ", command), cause);
+        }
+    }
+
+    // Come run(), ma un'uscita diversa da zero o un timeout producono una IOException con il messaggio
+    // indicato seguito da stderr
+    public Result runChecked(List<String> command, String input, long timeoutMillis, String errorMessage) throws IOException {
+        Result result = run(command, input, timeoutMillis);
+        if (result.isTimedOut()) {
+            throw new IOException(errorMessage + " (timeout dopo " + timeoutMillis + " ms)");
+        }
+        if (result.getExitCode() != 0) {
+            String detail = result.getStderr().trim();
+            throw new IOException(detail.isEmpty() ? errorMessage : errorMessage + ": " + detail);
+        }
+        return result;
+    }
+
+    public Result runChecked(List<String> command, String errorMessage) throws IOException {
+        return runChecked(command, null, DEFAULT_TIMEOUT_MILLIS, errorMessage);
+    }
+
+    // Ultime esecuzioni (la più recente per ultima)
+    public List<Result> getHistory() {
+        synchronized (history) {
+            return new ArrayList<>(history);
+        }
+    }
+
+    private Result execute(List<String> command, String input, long timeoutMillis) throws IOException, InterruptedException {
+        permits.acquire();
+        long start = System.nanoTime();
+        try {
+            Process process = new ProcessBuilder(command).start();
+            Future<String> stdout = executor.submit(() -> drain(process.getInputStream()));
+            Future<String> stderr = executor.submit(() -> drain(process.getErrorStream()));
+
+            // Anche l'input va scritto in parallelo: un processo che non lo legge non deve bloccare
+            // il chiamante prima del timeout
+            Future<?> stdin = executor.submit(() -> feed(process.getOutputStream(), input));
+
+            boolean timedOut = !process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS);
+            stdin.cancel(true);
+            if (timedOut) {
+                // Anche i processi figli, che altrimenti terrebbero aperte le pipe di output
+                process.descendants().forEach(ProcessHandle::destroy);
+                process.destroy();
+                if (!process.waitFor(KILL_GRACE_MILLIS, TimeUnit.MILLISECONDS)) {
+                    process.descendants().forEach(ProcessHandle::destroyForcibly);
+                    process.destroyForcibly();
+                    process.waitFor(KILL_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            }
+
+            Result result = new Result(command, timedOut ? -1 : process.exitValue(),
+                    collect(stdout), collect(stderr), timedOut, (System.nanoTime() - start) / 1_000_000);
+            record(result);
+            return result;
+        } finally {
+            permits.release();
+        }
+    }
+
+    // Legge tutto il flusso conservandone al massimo MAX_OUTPUT_BYTES
+    private static void feed(OutputStream stream, String input) {
+        try (OutputStream stdin = stream) {
+            if (input != null) {
+                stdin.write(input.getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            // Il processo può terminare senza leggere l'input: l'esito lo dirà il codice di uscita
+        }
+    }
+
+    private static String drain(InputStream stream) throws IOException {
+        ByteArrayOutputStream kept = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        try (InputStream in = stream) {
+            while ((read = in.read(buffer)) >= 0) {
+                int room = MAX_OUTPUT_BYTES - kept.size();
+                if (room > 0) {
+                    kept.write(buffer, 0, Math.min(read, room));
+                }
+            }
+        }
+        return kept.toString(StandardCharsets.UTF_8);
+    }
+
+    // I flussi si chiudono quando il processo termina; se un processo figlio li tiene aperti non si aspetta oltre
+    private static String collect(Future<String> output) throws InterruptedException {
+        try {
+            return output.get(KILL_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            output.cancel(true);
+            return "";
+        }
+    }
+
+    private void record(Result result) {
+        synchronized (history) {
+            if (history.size() == HISTORY_SIZE) {
+                history.removeFirst();
+            }
+            history.addLast(result);
+        }
+    }
+
+    // Thread virtuali dove disponibili (Java 21+), altrimenti un pool di thread daemon
+    private static ExecutorService createExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "command-executor");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
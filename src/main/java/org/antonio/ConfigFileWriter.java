@@ -0,0 +1,80 @@
+package org.antonio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+
+// Scrittura sicura dei file di configurazione: il nuovo contenuto viene scritto in un file temporaneo
+// nella stessa cartella, sincronizzato su disco e poi rinominato atomicamente sopra il file originale.
+// Se il processo si interrompe a metà, il file di configurazione resta quello precedente.
+public final class ConfigFileWriter {
+
+    private ConfigFileWriter() {
+    }
+
+    public static void writeAtomically(Path target, String content) throws IOException {
+        writeAtomically(target, content, true);
+    }
+
+    public static void writeAtomically(Path target, String content, boolean backup) throws IOException {
+        Path absolute = target.toAbsolutePath();
+        Path directory = absolute.getParent();
+        boolean exists = Files.exists(absolute);
+
+        if (backup && exists) {
+            Files.copy(absolute, Paths.get(absolute + ".bak"), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        Path temp = Files.createTempFile(directory, "." + absolute.getFileName() + ".", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+
+            // Il file temporaneo nasce con permessi 600: riprende proprietario e permessi dell'originale
+            if (exists) {
+                copyPosixAttributes(absolute, temp);
+            }
+
+            Files.move(temp, absolute, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        syncDirectory(directory);
+    }
+
+    private static void copyPosixAttributes(Path source, Path target) throws IOException {
+        PosixFileAttributeView sourceView = Files.getFileAttributeView(source, PosixFileAttributeView.class);
+        PosixFileAttributeView targetView = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+        if (sourceView == null || targetView == null) {
+            return;
+        }
+        PosixFileAttributes attributes = sourceView.readAttributes();
+        targetView.setPermissions(attributes.permissions());
+        try {
+            targetView.setOwner(attributes.owner());
+            targetView.setGroup(attributes.group());
+        } catch (FileSystemException e) {
+            // Senza privilegi di root il proprietario non può essere cambiato: restano quelli correnti
+        }
+    }
+
+    // Rende persistente la rinomina sincronizzando la cartella (ignorato dove non supportato)
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Alcuni filesystem non permettono di aprire una cartella in lettura
+        }
+    }
+}
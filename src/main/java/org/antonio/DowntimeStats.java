@@ -0,0 +1,156 @@
+package org.antonio;
+
+import java.util.*;
+
+// Tempi per cui i client restano senza servizio quando smbd o vsftpd vengono fermati, avviati,
+// riavviati o ricaricati. Ogni misura va in un istogramma per servizio, operazione e azione della
+// GUI che l'ha provocata, così un peggioramento dei tempi di applicazione si vede subito.
+public class DowntimeStats {
+
+    public enum Operation {
+        START,      // Dal comando di avvio al socket in ascolto
+        RESTART,    // Dal comando di riavvio (che include l'arresto) al socket di nuovo in ascolto
+        STOP_START, // Da un arresto al socket di nuovo in ascolto dopo l'avvio successivo
+        RELOAD      // Durata del ricaricamento della configurazione (senza interruzione)
+    }
+
+    // Limiti superiori delle classi in millisecondi; l'ultima classe raccoglie tutto il resto
+    private static final long[] BUCKET_LIMITS_MILLIS = {50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 30_000};
+
+    public static final String UNKNOWN_TRIGGER = "non specificata";
+
+    private static final DowntimeStats DEFAULT = new DowntimeStats();
+
+    public static DowntimeStats getDefault() {
+        return DEFAULT;
+    }
+
+    public static final class Histogram {
+        private final long[] counts = new long[BUCKET_LIMITS_MILLIS.length + 1];
+        private long count;
+        private long totalMillis;
+        private long minMillis = Long.MAX_VALUE;
+        private long maxMillis;
+        private long lastMillis;
+
+        private void add(long millis) {
+            int bucket = 0;
+            while (bucket < BUCKET_LIMITS_MILLIS.length && millis > BUCKET_LIMITS_MILLIS[bucket]) {
+                bucket++;
+            }
+            counts[bucket]++;
+            count++;
+            totalMillis += millis;
+            minMillis = Math.min(minMillis, millis);
+            maxMillis = Math.max(maxMillis, millis);
+            lastMillis = millis;
+        }
+
+        private Histogram copy() {
+            Histogram copy = new Histogram();
+            System.arraycopy(counts, 0, copy.counts, 0, counts.length);
+            copy.count = count;
+            copy.totalMillis = totalMillis;
+            copy.minMillis = minMillis;
+            copy.maxMillis = maxMillis;
+            copy.lastMillis = lastMillis;
+            return copy;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMinMillis() {
+            return count == 0 ? 0 : minMillis;
+        }
+
+        public long getMaxMillis() {
+            return maxMillis;
+        }
+
+        public long getLastMillis() {
+            return lastMillis;
+        }
+
+        public long getAverageMillis() {
+            return count == 0 ? 0 : totalMillis / count;
+        }
+
+        // Stima del percentile: limite superiore della classe che lo contiene, al massimo il valore più alto misurato
+        public long getPercentileMillis(double percentile) {
+            long rank = (long) Math.ceil(count * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_LIMITS_MILLIS.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(BUCKET_LIMITS_MILLIS[i], maxMillis);
+                }
+            }
+            return maxMillis;
+        }
+
+        // Numero di misure per classe, con l'etichetta del limite superiore
+        public LinkedHashMap<String, Long> getBuckets() {
+            LinkedHashMap<String, Long> buckets = new LinkedHashMap<>();
+            for (int i = 0; i < BUCKET_LIMITS_MILLIS.length; i++) {
+                buckets.put("<=" + BUCKET_LIMITS_MILLIS[i] + " ms", counts[i]);
+            }
+            buckets.put(">" + BUCKET_LIMITS_MILLIS[BUCKET_LIMITS_MILLIS.length - 1] + " ms", counts[BUCKET_LIMITS_MILLIS.length]);
+            return buckets;
+        }
+
+        @Override
+        public String toString() {
+            return "n=" + count + " min=" + getMinMillis() + " media=" + getAverageMillis() + " p50~" + getPercentileMillis(50)
+                    + " p95~" + getPercentileMillis(95) + " max=" + maxMillis + " ultima=" + lastMillis + " ms";
+        }
+    }
+
+    // Chiave "servizio / operazione / azione" nell'ordine di inserimento
+    private final LinkedHashMap<String, Histogram> histograms = new LinkedHashMap<>();
+
+    public synchronized Histogram record(ServiceChange.Service service, Operation operation, String trigger, long millis) {
+        Histogram histogram = histograms.computeIfAbsent(key(service, operation, trigger), k -> new Histogram());
+        histogram.add(millis);
+        return histogram.copy();
+    }
+
+    // Copia degli istogrammi raccolti finora
+    public synchronized LinkedHashMap<String, Histogram> getHistograms() {
+        LinkedHashMap<String, Histogram> copy = new LinkedHashMap<>();
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue().copy());
+        }
+        return copy;
+    }
+
+    public synchronized void clear() {
+        histograms.clear();
+    }
+
+    // Riepilogo testuale per la GUI e per l'output di debug
+    public String format() {
+        LinkedHashMap<String, Histogram> snapshot = getHistograms();
+        if (snapshot.isEmpty()) {
+            return "Nessuna misura: nessun servizio è stato avviato, riavviato o ricaricato.";
+        }
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Histogram> entry : snapshot.entrySet()) {
+            Histogram histogram = entry.getValue();
+            text.append(entry.getKey()).append('\n');
+            text.append("  ").append(histogram).append('\n');
+            for (Map.Entry<String, Long> bucket : histogram.getBuckets().entrySet()) {
+                if (bucket.getValue() > 0) {
+                    text.append("    ").append(bucket.getKey()).append(": ").append(bucket.getValue()).append('\n');
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    private static String key(ServiceChange.Service service, Operation operation, String trigger) {
+        return (service == ServiceChange.Service.SAMBA ? "Samba" : "FTP") + " / " + operation + " / "
+                + (trigger == null || trigger.isEmpty() ? UNKNOWN_TRIGGER : trigger);
+    }
+}
@@ -0,0 +1,195 @@
+package org.antonio;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+// /etc/fstab letto una volta e indicizzato per punto di mount. Le aggiunte e le rimozioni di un
+// salvataggio si accumulano in memoria e commit() scrive il file una sola volta, con
+// ConfigFileWriter (file temporaneo e rinomina atomica). Commenti, righe vuote e voci non toccate
+// vengono riscritti esattamente come erano.
+public class FstabModel {
+
+    public static final class Entry {
+        private final String source;
+        private final String target;
+        private final String fsType;
+        private final String options;
+        private final String dump;
+        private final String pass;
+
+        public Entry(String source, String target, String fsType, String options, String dump, String pass) {
+            this.source = source;
+            this.target = target;
+            this.fsType = fsType;
+            this.options = options;
+            this.dump = dump;
+            this.pass = pass;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public String getTarget() {
+            return target;
+        }
+
+        public String getFsType() {
+            return fsType;
+        }
+
+        public String getOptions() {
+            return options;
+        }
+
+        public boolean isBind() {
+            return Arrays.asList(options.split(",")).contains("bind");
+        }
+
+        // Riga nel formato di fstab(5), con spazi e tab codificati in ottale
+        private String render() {
+            return escape(source) + " " + escape(target) + " " + fsType + " " + options + " " + dump + " " + pass;
+        }
+
+        @Override
+        public String toString() {
+            return render();
+        }
+    }
+
+    // Una riga del file: entry è null per commenti, righe vuote e righe non riconosciute
+    private static final class Line {
+        private final String text;
+        private final Entry entry;
+
+        private Line(String text, Entry entry) {
+            this.text = text;
+            this.entry = entry;
+        }
+    }
+
+    private final Path path;
+    private final ArrayList<Line> lines = new ArrayList<>();
+    private final HashMap<String, Line> byTarget = new HashMap<>(); // Ultima voce per punto di mount
+    private int changes; // Modifiche non ancora scritte
+
+    private FstabModel(Path path) {
+        this.path = path;
+    }
+
+    // Un file mancante equivale a un fstab vuoto
+    public static FstabModel load(Path path) throws IOException {
+        FstabModel model = new FstabModel(path);
+        if (Files.exists(path)) {
+            for (String text : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                model.append(new Line(text, parse(text)));
+            }
+        }
+        return model;
+    }
+
+    private static Entry parse(String text) {
+        String trimmed = text.trim();
+        if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+            return null;
+        }
+        String[] fields = trimmed.split("\\s+");
+        if (fields.length < 2) {
+            return null;
+        }
+        return new Entry(
+                MountTable.unescape(fields[0]),
+                MountTable.unescape(fields[1]),
+                fields.length > 2 ? fields[2] : "auto",
+                fields.length > 3 ? fields[3] : "defaults",
+                fields.length > 4 ? fields[4] : "0",
+                fields.length > 5 ? fields[5] : "0"
+        );
+    }
+
+    private void append(Line line) {
+        lines.add(line);
+        if (line.entry != null) {
+            byTarget.put(line.entry.target, line);
+        }
+    }
+
+    public Entry get(String target) {
+        Line line = byTarget.get(target);
+        return line == null ? null : line.entry;
+    }
+
+    public String getSource(String target) {
+        Entry entry = get(target);
+        return entry == null ? null : entry.source;
+    }
+
+    public List<Entry> getEntries() {
+        ArrayList<Entry> entries = new ArrayList<>();
+        for (Line line : lines) {
+            if (line.entry != null) {
+                entries.add(line.entry);
+            }
+        }
+        return entries;
+    }
+
+    // Aggiunge un bind mount, o aggiorna la sorgente di quello già presente nello stesso punto
+    public void putBind(String source, String target) {
+        Entry current = get(target);
+        if (current != null && current.source.equals(source) && current.isBind()) {
+            return;
+        }
+        Entry entry = new Entry(source, target, "none", "bind", "0", "0");
+        Line line = new Line(entry.render(), entry);
+        if (current != null) {
+            lines.set(lines.indexOf(byTarget.get(target)), line); // Stessa posizione nel file
+            byTarget.put(target, line);
+        } else {
+            append(line);
+        }
+        changes++;
+    }
+
+    // Rimuove tutte le voci con questo punto di mount; restituisce false se non ce n'erano
+    public boolean remove(String target) {
+        if (byTarget.remove(target) == null) {
+            return false;
+        }
+        lines.removeIf(line -> line.entry != null && line.entry.target.equals(target));
+        changes++;
+        return true;
+    }
+
+    public boolean isDirty() {
+        return changes > 0;
+    }
+
+    // Scrive tutte le modifiche accumulate in un'unica sostituzione atomica del file
+    public void commit() throws IOException {
+        if (changes == 0) {
+            return;
+        }
+        StringBuilder builder = new StringBuilder();
+        for (Line line : lines) {
+            builder.append(line.text).append('\n');
+        }
+        ConfigFileWriter.writeAtomically(path, builder.toString());
+        changes = 0;
+    }
+
+    private static String escape(String field) {
+        StringBuilder builder = new StringBuilder(field.length());
+        for (char c : field.toCharArray()) {
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\\') {
+                builder.append('\\').append(String.format("%03o", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -3,14 +3,42 @@ package org.antonio;
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 public class FtpManager {
+    private static final long SERVICE_TIMEOUT_MILLIS = 120_000; // systemd attende fino a 90 s prima di forzare l'arresto
+    private static final int DEFAULT_FTP_PORT = 21;
+    private static final Path FSTAB_PATH = Paths.get("/etc/fstab");
+    private static final int MAX_PARALLEL_MOUNTS = 8;
+    // Pool limitato per i bind mount: con il backend a processi CommandExecutor applica anche il proprio limite
+    private static final ExecutorService MOUNT_POOL = Executors.newFixedThreadPool(MAX_PARALLEL_MOUNTS, runnable -> {
+        Thread thread = new Thread(runnable, "bind-mount");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private String vsftpdConfPath; // Percorso del file di configurazione
     private String ftpUsersFilePath; // Percorso del file lista utenti FTP
 
     private ArrayList<String[]> config;
     private ArrayList<FtpCondBean> ftpShares, ftpSharesCopy;
+    // Protegge le due liste: le usano sia i salvataggi (anche da un JobGraph) sia gli eventi di mount
+    private final Object sharesLock = new Object();
+    // Punti di mount su cui un salvataggio in corso sta montando o smontando: i loro eventi vanno ignorati
+    private final Set<String> savingTargets = ConcurrentHashMap.newKeySet();
     private ArrayList<String> ftpUsers;
+    private HashMap<String, String> savedConfig; // Parametro -> valore scritto in vsftpd.conf
+    private final ArrayList<ServiceChange> pendingChanges; // Modifiche scritte e non ancora applicate a vsftpd
+    private volatile long stoppedAtNanos; // Istante dell'ultimo arresto di vsftpd, 0 se non è stato fermato
+    private MountWatcher mountWatcher; // Aggiorna le condivisioni quando i mount cambiano
+    private final MountBackend mountBackend = MountBackend.select(); // mount(2) nativo o comandi mount/umount
     private boolean debugEnabled; // Flag per il debug
 
     public FtpManager(String vsftpdConfPath, String ftpUsersFilePath) throws IOException {
@@ -20,7 +48,10 @@ public class FtpManager {
         this.ftpShares = new ArrayList<>();
         this.ftpSharesCopy = new ArrayList<>();
         this.ftpUsers = new ArrayList<>();
+        this.savedConfig = new HashMap<>();
+        this.pendingChanges = new ArrayList<>();
         loadConfig();
+        savedConfig = configSnapshot();
         loadFtpUsers();
         loadFtpShares();
     }
@@ -99,28 +130,50 @@ public class FtpManager {
         }
     }
 
-    public void updateConfig() throws IOException, InterruptedException {
+    public void updateConfig() throws IOException {
         printDebug("Inizio aggiornamento del file di configurazione: " + vsftpdConfPath);
-        Path configPath = Paths.get(vsftpdConfPath);
-        Path backupPath = Paths.get(vsftpdConfPath + ".bak");
-
-        printDebug("Creazione backup del file di configurazione in: " + backupPath);
-        Files.copy(configPath, backupPath, StandardCopyOption.REPLACE_EXISTING);
-        printDebug("Backup completato con successo.");
-
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(configPath.toFile()))) {
-            printDebug("Scrittura delle configurazioni aggiornate nel file.");
-            for (String[] pair : config) {
-                writer.write(pair[0] + "=" + pair[1]);
-                writer.newLine();
-                printDebug("Configurazione scritta: " + pair[0] + " = " + pair[1]);
+        StringBuilder builder = new StringBuilder();
+        for (String[] pair : config) {
+            builder.append(pair[0]).append("=").append(pair[1]).append("\n");
+            printDebug("Configurazione scritta: " + pair[0] + " = " + pair[1]);
+        }
+
+        // Backup, file temporaneo sincronizzato e rinomina atomica sopra il file originale
+        ConfigFileWriter.writeAtomically(Paths.get(vsftpdConfPath), builder.toString());
+
+        HashMap<String, String> written = configSnapshot();
+        HashSet<String> keys = new HashSet<>(savedConfig.keySet());
+        keys.addAll(written.keySet());
+        for (String key : keys) {
+            if (!Objects.equals(savedConfig.get(key), written.get(key))) {
+                recordChange(ServiceChange.Kind.SETTING, key);
             }
         }
-        printDebug("Scrittura completata. Attesa di 1 secondo prima di ricaricare la configurazione.");
-        Thread.sleep(1000);
+        savedConfig = written;
+        printDebug("Configurazione aggiornata con successo: la lista in memoria è lo stato corrente.");
+    }
 
-        loadConfig();
-        printDebug("Configurazione aggiornata e ricaricata con successo.");
+    private HashMap<String, String> configSnapshot() {
+        HashMap<String, String> snapshot = new HashMap<>();
+        for (String[] pair : config) {
+            snapshot.put(pair[0].toLowerCase(Locale.ROOT), pair[1]);
+        }
+        return snapshot;
+    }
+
+    private void recordChange(ServiceChange.Kind kind, String detail) {
+        synchronized (pendingChanges) {
+            pendingChanges.add(new ServiceChange(ServiceChange.Service.FTP, kind, detail));
+        }
+    }
+
+    // Modifiche scritte dall'ultima chiamata, che vsftpd non ha ancora ricevuto
+    public List<ServiceChange> takePendingChanges() {
+        synchronized (pendingChanges) {
+            ArrayList<ServiceChange> changes = new ArrayList<>(pendingChanges);
+            pendingChanges.clear();
+            return changes;
+        }
     }
 
     public String getFormattedConfig() {
@@ -163,6 +216,7 @@ public class FtpManager {
         if (!ftpUsers.contains(username)) {
             ftpUsers.add(username);
             Files.write(Paths.get(ftpUsersFilePath), ftpUsers);
+            recordChange(ServiceChange.Kind.USER_LIST, username);
             printDebug("Utente FTP aggiunto con successo: " + username);
         } else {
             printDebug("L'utente FTP esiste già: " + username);
@@ -177,6 +231,7 @@ public class FtpManager {
             boolean removed = ftpUsers.remove(username);
             if (removed) {
                 Files.write(path, ftpUsers);
+                recordChange(ServiceChange.Kind.USER_LIST, username);
                 printDebug("Utente FTP rimosso con successo: " + username);
             } else {
                 printDebug("Utente FTP non trovato nella lista: " + username);
@@ -210,18 +265,22 @@ public class FtpManager {
 
     public ArrayList<FtpCondBean> getFtpShares() {
         printDebug("Recupero della lista di tutte le condivisioni FTP.");
-        printDebug("Numero totale di condivisioni FTP: " + ftpShares.size());
-        return new ArrayList<>(ftpShares);
+        synchronized (sharesLock) {
+            printDebug("Numero totale di condivisioni FTP: " + ftpShares.size());
+            return new ArrayList<>(ftpShares);
+        }
     }
 
     public ArrayList<FtpCondBean> getSharesByUser(String username) {
         printDebug("Ricerca delle condivisioni FTP per l'utente: " + username);
         ArrayList<FtpCondBean> userShares = new ArrayList<>();
-        for (FtpCondBean share : ftpShares) {
-            printDebug("Verifica condivisione: " + share.getShareName() + " (utente: " + share.getUsername() + ")");
-            if (share.getUsername().equalsIgnoreCase(username)) {
-                printDebug("Condivisione trovata per l'utente " + username + ": " + share.getShareName());
-                userShares.add(share);
+        synchronized (sharesLock) {
+            for (FtpCondBean share : ftpShares) {
+                printDebug("Verifica condivisione: " + share.getShareName() + " (utente: " + share.getUsername() + ")");
+                if (share.getUsername().equalsIgnoreCase(username)) {
+                    printDebug("Condivisione trovata per l'utente " + username + ": " + share.getShareName());
+                    userShares.add(share);
+                }
             }
         }
         printDebug("Numero totale di condivisioni trovate per l'utente " + username + ": " + userShares.size());
@@ -231,309 +290,460 @@ public class FtpManager {
     public void addShare(String username, String shareName, String path) {
         printDebug("Aggiunta di una nuova condivisione FTP.");
         printDebug("Dettagli condivisione: Utente = " + username + ", Nome = " + shareName + ", Percorso = " + path);
-        ftpShares.add(new FtpCondBean(username, shareName, path)); // Solo nella lista temporanea
+        synchronized (sharesLock) {
+            ftpShares.add(new FtpCondBean(username, shareName, path)); // Solo nella lista temporanea
+        }
         printDebug("Condivisione FTP aggiunta con successo.");
     }
 
     public void removeShare(FtpCondBean share) {
         printDebug("Rimozione della condivisione FTP: " + share.getShareName() + " (utente: " + share.getUsername() + ")");
-        if (ftpShares.remove(share)) {
+        boolean removed;
+        synchronized (sharesLock) {
+            removed = ftpShares.remove(share);
+        }
+        if (removed) {
             printDebug("Condivisione FTP rimossa con successo: " + share.getShareName());
         } else {
             printDebug("Condivisione FTP non trovata: " + share.getShareName());
         }
     }
 
+    // Porta i mount sotto /home allo stato di ftpShares. Il piano è la differenza esatta tra le
+    // condivisioni volute e quelle montate (ftpSharesCopy confrontata con la tabella dei mount):
+    // prima tutti gli umount, poi tutti i mount, ciascun gruppo in parallelo su un pool limitato.
+    // Le liste vengono aggiornate dagli esiti, senza attese né nuove scansioni.
     public void saveSharesOnDisk() throws IOException, InterruptedException {
-        printDebug("Salvataggio delle condivisioni FTP su disco iniziato.");
-        printDebug("Contenuto attuale di ftpShares: " + ftpShares.size());
-        printDebug("Contenuto attuale di ftpSharesCopy: " + ftpSharesCopy.size());
-
-        // Rimuovi le condivisioni che non sono più presenti nella lista principale
-        for (FtpCondBean share : new ArrayList<>(ftpSharesCopy)) { // Copia per iterazione sicura
-            if (!ftpShares.contains(share)) {
-                Path sharePath = Paths.get("/home", share.getUsername(), share.getShareName());
-                printDebug("Rimuovo bind mount non più presente: " + sharePath);
-                if (isBindMount(sharePath)) {
-                    printDebug("Bind mount trovato, procedo con la rimozione: " + sharePath);
-                    deleteBindMount(sharePath.toString());
-                } else {
-                    printDebug("Nessun bind mount trovato per: " + sharePath);
+        synchronized (sharesLock) {
+            printDebug("Salvataggio delle condivisioni FTP su disco iniziato.");
+            printDebug("Contenuto attuale di ftpShares: " + ftpShares.size());
+            printDebug("Contenuto attuale di ftpSharesCopy: " + ftpSharesCopy.size());
+            MountTable mounts = MountTable.current();
+            FstabModel fstab = FstabModel.load(FSTAB_PATH); // Scritto una sola volta alla fine
+
+            // Piano: punto di mount -> condivisione da smontare o da montare
+            LinkedHashMap<String, FtpCondBean> wanted = new LinkedHashMap<>();
+            for (FtpCondBean share : ftpShares) {
+                wanted.put(sharePath(share).toString(), share);
+            }
+            HashMap<String, FtpCondBean> saved = new HashMap<>();
+            LinkedHashMap<String, FtpCondBean> toUnmount = new LinkedHashMap<>();
+            for (FtpCondBean share : ftpSharesCopy) {
+                String target = sharePath(share).toString();
+                saved.put(target, share);
+                FtpCondBean desired = wanted.get(target);
+                if (desired == null || !desired.getPath().equals(share.getPath())) {
+                    toUnmount.put(target, share); // Rimossa, oppure da rimontare con una nuova sorgente
                 }
-                ftpSharesCopy.remove(share); // Rimuove anche dalla copia
-                printDebug("Condivisione rimossa dalla copia locale: " + share.getShareName());
             }
-        }
+            LinkedHashMap<String, FtpCondBean> toMount = new LinkedHashMap<>();
+            for (Map.Entry<String, FtpCondBean> entry : wanted.entrySet()) {
+                String target = entry.getKey();
+                FtpCondBean desired = entry.getValue();
+                if (toUnmount.containsKey(target) || !mounts.isMountPoint(Paths.get(target))) {
+                    toMount.put(target, desired);
+                } else if (!saved.containsKey(target)) {
+                    // Già montata (es. da fuori dell'applicazione): si adotta solo se la sorgente è quella voluta
+                    String source = getBindMountSourcePath(mounts, fstab, Paths.get(target));
+                    if (source != null && Paths.get(source).normalize().equals(Paths.get(desired.getPath()).normalize())) {
+                        ftpSharesCopy.add(desired);
+                    } else {
+                        // Lo smontaggio usa solo il punto di mount: con sorgente ignota basta la condivisione voluta
+                        toUnmount.put(target, source == null ? desired
+                                : new FtpCondBean(desired.getUsername(), desired.getShareName(), source));
+                        toMount.put(target, desired);
+                    }
+                }
+            }
+            printDebug("Piano dei bind mount: " + toUnmount.size() + " da smontare, " + toMount.size() + " da montare ("
+                    + mountBackend.getName() + ").");
 
-        // Aggiungi le nuove condivisioni presenti nella lista principale
-        for (FtpCondBean share : ftpShares) {
-            Path userHome = Paths.get("/home", share.getUsername());
-            Path sharePath = userHome.resolve(share.getShareName());
-            Path targetPath = Paths.get(share.getPath());
+            ArrayList<String> failures = new ArrayList<>();
+            savingTargets.addAll(toUnmount.keySet());
+            savingTargets.addAll(toMount.keySet());
+            try {
+                // Un punto ancora montato con la vecchia sorgente non riceve il nuovo mount sopra
+                toMount.keySet().removeAll(unmountShares(toUnmount, mounts, fstab, failures));
+                mountShares(toMount, fstab, failures);
+            } finally {
+                savingTargets.removeAll(toUnmount.keySet());
+                savingTargets.removeAll(toMount.keySet());
+                // fstab registra tutti i mount riusciti, anche se altri sono falliti
+                fstab.commit();
+                // Come dopo una nuova lettura: la lista di lavoro riparte dallo stato montato
+                ftpShares.clear();
+                ftpShares.addAll(ftpSharesCopy);
+            }
+            printDebug("Condivisioni FTP montate: " + ftpSharesCopy.size() + ", errori: " + failures.size());
 
-            printDebug("Controllo bind mount per: " + sharePath);
-            if (!isBindMount(sharePath)) {
-                printDebug("Creazione bind mount per " + sharePath + " -> " + targetPath);
-                createBindMount(targetPath.toString(), sharePath.toString());
-                if (!ftpSharesCopy.contains(share)) {
-                    ftpSharesCopy.add(share); // Aggiorna la copia
-                    printDebug("Condivisione aggiunta alla copia locale: " + share.getShareName());
-                }
-            } else {
-                printDebug("Bind mount già esistente per " + sharePath);
+            if (!failures.isEmpty()) {
+                throw new IOException("Errore durante l'aggiornamento di " + failures.size() + " bind mount:\n" + String.join("\n", failures));
             }
         }
+    }
 
-        // Ricarica la lista
-        printDebug("Ricarico la lista delle condivisioni FTP.");
-        Thread.sleep(1000);
-        loadFtpShares(); // Ricarica entrambe le liste
-        printDebug("Lista delle condivisioni FTP ricaricata con successo.");
+    private static Path sharePath(FtpCondBean share) {
+        return Paths.get("/home", share.getUsername(), share.getShareName());
     }
 
-    private boolean isBindMount(Path path) throws IOException {
-        printDebug("Verifica se il percorso è un bind mount: " + path);
-        try (BufferedReader reader = new BufferedReader(new FileReader("/proc/self/mountinfo"))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.contains(path.toString())) {
-                    printDebug("Bind mount trovato per il percorso: " + path);
-                    return true; // Il percorso è un mount point
+    // Restituisce i punti di mount che non è stato possibile smontare
+    private Set<String> unmountShares(Map<String, FtpCondBean> toUnmount, MountTable mounts, FstabModel fstab, List<String> failures) throws InterruptedException {
+        HashSet<String> stillMounted = new HashSet<>();
+        LinkedHashMap<String, CompletableFuture<Void>> running = new LinkedHashMap<>();
+        for (String target : toUnmount.keySet()) {
+            if (mounts.isMountPoint(Paths.get(target))) {
+                printDebug("Smontaggio del bind mount: " + target);
+                running.put(target, runMountOperation(() -> mountBackend.unmount(target)));
+            }
+        }
+        for (Map.Entry<String, FtpCondBean> entry : toUnmount.entrySet()) {
+            String target = entry.getKey();
+            CompletableFuture<Void> result = running.get(target);
+            String error = result == null ? null : operationError(result);
+            if (error != null) {
+                failures.add(error);
+                stillMounted.add(target);
+                continue; // Ancora montata: resta nelle liste e in fstab
+            }
+            if (result != null) {
+                recordChange(ServiceChange.Kind.MOUNT, target);
+                try {
+                    Files.deleteIfExists(Paths.get(target)); // La directory creata per il mount, ora vuota
+                } catch (IOException e) {
+                    printDebug("Impossibile rimuovere la directory " + target + ": " + e.getMessage());
                 }
             }
+            fstab.remove(target);
+            ftpSharesCopy.remove(entry.getValue());
+            printDebug("Condivisione rimossa: " + target);
         }
-        printDebug("Nessun bind mount trovato per il percorso: " + path);
-        return false; // Non trovato, quindi non è un mount point
+        return stillMounted;
     }
 
-    private void createBindMount(String sourcePath, String targetPath) throws IOException, InterruptedException {
-        printDebug("Inizio creazione bind mount.");
-        printDebug("Percorso sorgente: " + sourcePath);
-        printDebug("Percorso destinazione: " + targetPath);
-
-        Path targetDir = Paths.get(targetPath);
-
-        // Crea la directory di destinazione se non esiste
-        if (!Files.exists(targetDir)) {
-            printDebug("La directory di destinazione non esiste. Creazione della directory: " + targetPath);
-            Files.createDirectories(targetDir);
-            printDebug("Directory creata con successo: " + targetPath);
-        } else {
-            printDebug("La directory di destinazione esiste già: " + targetPath);
-        }
-
-        // Esegui il bind mount
-        ProcessBuilder mountPb = new ProcessBuilder("mount", "--bind", sourcePath, targetPath);
-        printDebug("Esecuzione del comando mount: " + String.join(" ", mountPb.command()));
-        executeCommand(mountPb, "Errore nel creare il bind mount per " + targetPath);
-        printDebug("Bind mount creato con successo da " + sourcePath + " a " + targetPath);
-
-        // Aggiungi al fstab
-        String fstabEntry = sourcePath + " " + targetPath + " none bind 0 0\n";
-        Path fstabPath = Paths.get("/etc/fstab");
-        List<String> currentFstab = Files.readAllLines(fstabPath);
-        if (currentFstab.stream().noneMatch(line -> line.equals(fstabEntry.trim()))) {
-            printDebug("Aggiunta del bind mount a /etc/fstab: " + fstabEntry.trim());
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(fstabPath.toFile(), true))) {
-                writer.write(fstabEntry);
+    private void mountShares(Map<String, FtpCondBean> toMount, FstabModel fstab, List<String> failures) throws InterruptedException {
+        LinkedHashMap<String, CompletableFuture<Void>> running = new LinkedHashMap<>();
+        for (Map.Entry<String, FtpCondBean> entry : toMount.entrySet()) {
+            String target = entry.getKey();
+            try {
+                Files.createDirectories(Paths.get(target));
+            } catch (IOException e) {
+                failures.add("mkdir " + target + ": " + e.getMessage());
+                continue;
             }
-            printDebug("Entry aggiunta a /etc/fstab con successo.");
-        } else {
-            printDebug("Entry già presente in /etc/fstab: " + fstabEntry.trim());
+            printDebug("Bind mount da " + entry.getValue().getPath() + " a " + target);
+            String source = entry.getValue().getPath();
+            running.put(target, runMountOperation(() -> mountBackend.bind(source, target)));
+        }
+        for (Map.Entry<String, CompletableFuture<Void>> entry : running.entrySet()) {
+            String target = entry.getKey();
+            String error = operationError(entry.getValue());
+            if (error != null) {
+                failures.add(error);
+                continue;
+            }
+            FtpCondBean share = toMount.get(target);
+            recordChange(ServiceChange.Kind.MOUNT, target);
+            fstab.putBind(share.getPath(), target);
+            if (!ftpSharesCopy.contains(share)) {
+                ftpSharesCopy.add(share);
+            }
+            printDebug("Condivisione montata: " + target);
         }
     }
 
-    private void deleteBindMount(String targetPath) throws IOException, InterruptedException {
-        printDebug("Inizio rimozione bind mount.");
-        printDebug("Percorso destinazione: " + targetPath);
-
-        Path targetDir = Paths.get(targetPath);
+    private interface MountOperation {
+        void run() throws IOException;
+    }
 
-        // Smonta il bind mount se esiste
-        if (Files.exists(targetDir)) {
-            printDebug("Il percorso di destinazione esiste. Tentativo di smontaggio: " + targetPath);
-            ProcessBuilder umountPb = new ProcessBuilder("umount", targetPath);
+    private static CompletableFuture<Void> runMountOperation(MountOperation operation) {
+        return CompletableFuture.runAsync(() -> {
             try {
-                printDebug("Esecuzione del comando umount: " + String.join(" ", umountPb.command()));
-                executeCommand(umountPb, "Errore nello smontare il bind mount per " + targetPath);
-                printDebug("Bind mount smontato con successo: " + targetPath);
+                operation.run();
             } catch (IOException e) {
-                printDebug("Errore durante lo smontaggio: " + e.getMessage());
+                throw new CompletionException(e);
             }
+        }, MOUNT_POOL);
+    }
 
-            // Rimuovi la directory
-            printDebug("Tentativo di rimuovere la directory: " + targetPath);
-            Files.deleteIfExists(targetDir);
-            printDebug("Directory rimossa con successo: " + targetPath);
-        } else {
-            printDebug("Il percorso di destinazione non esiste: " + targetPath);
+    // Messaggio di errore dell'operazione, null se è terminata con successo
+    private static String operationError(CompletableFuture<Void> future) throws InterruptedException {
+        try {
+            future.get();
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause().getMessage();
         }
-
-        // Rimuovi l'entry da /etc/fstab
-        Path fstabPath = Paths.get("/etc/fstab");
-        List<String> currentFstab = Files.readAllLines(fstabPath);
-        String targetEntry = " " + targetPath + " none bind 0 0";
-        printDebug("Rimozione dell'entry da /etc/fstab contenente: " + targetEntry.trim());
-        currentFstab.removeIf(line -> line.contains(targetEntry.trim()));
-        Files.write(fstabPath, currentFstab);
-        printDebug("Entry rimossa da /etc/fstab con successo.");
     }
 
     private void loadFtpShares() throws IOException {
-        printDebug("Inizio caricamento delle condivisioni FTP.");
-        ftpShares.clear();
-        ftpSharesCopy.clear();
-        printDebug("Liste `ftpShares` e `ftpSharesCopy` svuotate.");
-
-        Path homeDir = Paths.get("/home");
-        printDebug("Controllo esistenza della directory home: " + homeDir);
-
-        if (Files.exists(homeDir)) {
-            printDebug("Directory home trovata. Avvio scansione delle sottodirectory degli utenti.");
-            try (DirectoryStream<Path> stream = Files.newDirectoryStream(homeDir)) {
-                for (Path userDir : stream) {
-                    printDebug("Trovata directory utente: " + userDir);
-
-                    if (Files.isDirectory(userDir)) {
-                        printDebug("La directory è valida. Avvio scansione delle condivisioni in: " + userDir);
-
-                        try (DirectoryStream<Path> shareStream = Files.newDirectoryStream(userDir)) {
-                            for (Path share : shareStream) {
-                                printDebug("Trovata potenziale condivisione: " + share);
-
-                                if (Files.isDirectory(share) && isMountPointUsingProc(share)) { // Solo bind mount
-                                    String sourcePath = getBindMountSourcePath(share);
-                                    if (sourcePath != null) {
-                                        printDebug("Condivisione valida trovata (bind mount): " + share);
-                                        FtpCondBean ftpShare = new FtpCondBean(
-                                                userDir.getFileName().toString(),
-                                                share.getFileName().toString(),
-                                                sourcePath
-                                        );
-                                        ftpShares.add(ftpShare);
-                                        ftpSharesCopy.add(ftpShare);
-                                        printDebug("Condivisione aggiunta a `ftpShares` e `ftpSharesCopy`: " + ftpShare.toFormattedString());
+        synchronized (sharesLock) {
+            printDebug("Inizio caricamento delle condivisioni FTP.");
+            ftpShares.clear();
+            ftpSharesCopy.clear();
+            printDebug("Liste `ftpShares` e `ftpSharesCopy` svuotate.");
+
+            Path homeDir = Paths.get("/home");
+            printDebug("Controllo esistenza della directory home: " + homeDir);
+            // Tabelle lette una sola volta per tutte le directory esaminate
+            MountTable mounts = MountTable.current();
+            FstabModel fstab = FstabModel.load(FSTAB_PATH);
+
+            if (Files.exists(homeDir)) {
+                printDebug("Directory home trovata. Avvio scansione delle sottodirectory degli utenti.");
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(homeDir)) {
+                    for (Path userDir : stream) {
+                        printDebug("Trovata directory utente: " + userDir);
+
+                        if (Files.isDirectory(userDir)) {
+                            printDebug("La directory è valida. Avvio scansione delle condivisioni in: " + userDir);
+
+                            try (DirectoryStream<Path> shareStream = Files.newDirectoryStream(userDir)) {
+                                for (Path share : shareStream) {
+                                    printDebug("Trovata potenziale condivisione: " + share);
+
+                                    if (Files.isDirectory(share) && mounts.isMountPoint(share)) { // Solo bind mount
+                                        String sourcePath = getBindMountSourcePath(mounts, fstab, share);
+                                        if (sourcePath != null) {
+                                            printDebug("Condivisione valida trovata (bind mount): " + share);
+                                            FtpCondBean ftpShare = new FtpCondBean(
+                                                    userDir.getFileName().toString(),
+                                                    share.getFileName().toString(),
+                                                    sourcePath
+                                            );
+                                            ftpShares.add(ftpShare);
+                                            ftpSharesCopy.add(ftpShare);
+                                            printDebug("Condivisione aggiunta a `ftpShares` e `ftpSharesCopy`: " + ftpShare.toFormattedString());
+                                        } else {
+                                            printDebug("Condivisione ignorata (impossibile determinare il percorso sorgente): " + share);
+                                        }
                                     } else {
-                                        printDebug("Condivisione ignorata (impossibile determinare il percorso sorgente): " + share);
+                                        printDebug("Condivisione ignorata (non è un bind mount): " + share);
                                     }
-                                } else {
-                                    printDebug("Condivisione ignorata (non è un bind mount): " + share);
                                 }
                             }
+                        } else {
+                            printDebug("Ignorato: " + userDir + " (non è una directory valida).");
                         }
-                    } else {
-                        printDebug("Ignorato: " + userDir + " (non è una directory valida).");
                     }
                 }
+            } else {
+                printDebug("Directory home non trovata: " + homeDir);
             }
-        } else {
-            printDebug("Directory home non trovata: " + homeDir);
-        }
 
-        printDebug("Caricamento delle condivisioni FTP completato.");
-        printDebug("Numero totale di condivisioni caricate: " + ftpShares.size());
+            printDebug("Caricamento delle condivisioni FTP completato.");
+            printDebug("Numero totale di condivisioni caricate: " + ftpShares.size());
+        }
     }
 
-    private String getBindMountSourcePath(Path bindMountPath) throws IOException {
-        printDebug("Determinazione del percorso sorgente per il bind mount: " + bindMountPath);
-        Path fstabPath = Paths.get("/etc/fstab");
-        Path mountInfoPath = Paths.get("/proc/self/mountinfo");
-
-        Map<String, String> fstabMap = new HashMap<>();
-
-        // Fase 1: Leggi e analizza `/etc/fstab`
-        printDebug("Caricamento dei mount point da /etc/fstab...");
-        try (BufferedReader reader = Files.newBufferedReader(fstabPath)) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.trim().startsWith("#") || line.trim().isEmpty()) {
-                    continue; // Ignora commenti e righe vuote
+    // Segue i mount e gli umount fatti dal kernel, anche da fuori dell'applicazione, e applica
+    // ciascuno alle liste delle condivisioni sul thread di delivery (la GUI passa
+    // SwingUtilities::invokeLater). onChange riceve l'utente le cui condivisioni sono cambiate.
+    public synchronized void startMountWatcher(Executor delivery, Consumer<String> onChange) {
+        if (mountWatcher != null) {
+            return;
+        }
+        mountWatcher = new MountWatcher(delivery, new MountWatcher.Listener() {
+            @Override
+            public void mountChanged(MountWatcher.Event event) {
+                printDebug("Evento di mount: " + event);
+                if (isBeingSaved(event)) {
+                    printDebug("Evento ignorato: il punto di mount è in fase di salvataggio.");
+                    return;
                 }
-                String[] parts = line.split("\\s+");
-                if (parts.length >= 2) {
-                    String fstabSource = parts[0]; // Percorso sorgente
-                    String fstabTarget = parts[1]; // Punto di mount
-                    fstabMap.put(fstabTarget, fstabSource);
+                try {
+                    for (String username : applyMountEvent(event)) {
+                        onChange.accept(username);
+                    }
+                } catch (IOException e) {
+                    printDebug("Errore durante l'aggiornamento delle condivisioni FTP: " + e.getMessage());
                 }
             }
+
+            @Override
+            public void watcherFailed(String message) {
+                printDebug(message + ": le condivisioni FTP si aggiornano solo al salvataggio.");
+            }
+        });
+        mountWatcher.start();
+        printDebug("Ascolto delle modifiche ai mount avviato.");
+    }
+
+    public synchronized void stopMountWatcher() {
+        if (mountWatcher != null) {
+            mountWatcher.stop();
+            mountWatcher = null;
         }
-        printDebug("Mappa dei mount point da /etc/fstab: " + fstabMap);
-
-        // Fase 2: Conferma il mount attivo e trova il percorso sorgente in `/proc/self/mountinfo`
-        String sourcePath = null;
-        printDebug("Conferma dei mount point in /proc/self/mountinfo...");
-        try (BufferedReader reader = Files.newBufferedReader(mountInfoPath)) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(" ");
-                if (parts.length > 9) {
-                    String mountPoint = parts[4]; // Punto di mount attivo
-                    if (Paths.get(mountPoint).equals(bindMountPath)) {
-                        printDebug("Bind mount trovato in mountinfo: " + mountPoint);
-                        sourcePath = fstabMap.get(mountPoint);
-                        if (sourcePath != null) {
-                            printDebug("Percorso sorgente corrispondente trovato in fstab: " + sourcePath);
-                        } else {
-                            printDebug("Percorso sorgente non trovato in fstab per: " + mountPoint);
-                        }
-                        break;
+    }
+
+    // Applica un evento alle liste: solo i punti di mount /home/<utente>/<condivisione> sono
+    // condivisioni FTP. Restituisce gli utenti le cui condivisioni sono cambiate.
+    private Set<String> applyMountEvent(MountWatcher.Event event) throws IOException {
+        synchronized (sharesLock) {
+            LinkedHashSet<String> changed = new LinkedHashSet<>();
+            switch (event.getAction()) {
+                case MOUNT:
+                    addMountedShare(event.getTarget(), changed);
+                    break;
+                case UMOUNT:
+                    removeUnmountedShare(event.getTarget(), changed);
+                    break;
+                case MOVE:
+                    if (event.getOldTarget() != null) {
+                        removeUnmountedShare(event.getOldTarget(), changed);
                     }
-                }
+                    addMountedShare(event.getTarget(), changed);
+                    break;
+                default:
+                    break; // Un remount cambia solo le opzioni
             }
+            return changed;
         }
+    }
+
+    // Un salvataggio in corso aggiorna da sé le liste con gli esiti delle proprie operazioni
+    private boolean isBeingSaved(MountWatcher.Event event) {
+        return savingTargets.contains(event.getTarget().toString())
+                || (event.getOldTarget() != null && savingTargets.contains(event.getOldTarget().toString()));
+    }
 
-        // Fallback: Nessun percorso sorgente determinato
+    private void addMountedShare(Path target, Set<String> changed) throws IOException {
+        if (!isSharePath(target) || findShare(ftpSharesCopy, target) != null) {
+            return; // Non è una condivisione, oppure è un mount creato da saveSharesOnDisk
+        }
+        String sourcePath = getBindMountSourcePath(MountTable.current(), FstabModel.load(FSTAB_PATH), target);
         if (sourcePath == null) {
-            printDebug("Percorso sorgente non determinato per il bind mount: " + bindMountPath);
+            return;
         }
-        return sourcePath;
+        FtpCondBean share = new FtpCondBean(target.getParent().getFileName().toString(), target.getFileName().toString(), sourcePath);
+        ftpSharesCopy.add(share);
+        if (findShare(ftpShares, target) == null) {
+            ftpShares.add(share);
+        }
+        changed.add(share.getUsername());
+        printDebug("Condivisione FTP montata esternamente: " + share.toFormattedString());
     }
 
-    private boolean isMountPointUsingProc(Path path) throws IOException {
-        printDebug("Verifica se il percorso è un mount point utilizzando /proc/self/mountinfo: " + path);
-        try (BufferedReader reader = new BufferedReader(new FileReader("/proc/self/mountinfo"))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.contains(path.toString())) {
-                    printDebug("Il percorso è un mount point: " + path);
-                    return true; // Il percorso è un mount point
-                }
+    private void removeUnmountedShare(Path target, Set<String> changed) throws IOException {
+        if (!isSharePath(target) || MountTable.current().isMountPoint(target)) {
+            return; // C'era un altro mount sovrapposto nello stesso punto
+        }
+        FtpCondBean saved = findShare(ftpSharesCopy, target);
+        FtpCondBean edited = findShare(ftpShares, target);
+        if (saved != null) {
+            ftpSharesCopy.remove(saved);
+        }
+        if (edited != null && edited == saved) {
+            ftpShares.remove(edited); // Una condivisione aggiunta ma non ancora salvata resta in lista
+        }
+        if (saved != null) {
+            changed.add(saved.getUsername());
+            printDebug("Condivisione FTP smontata esternamente: " + target);
+        }
+    }
+
+    private static boolean isSharePath(Path target) {
+        Path userDir = target.getParent();
+        return userDir != null && Paths.get("/home").equals(userDir.getParent());
+    }
+
+    private static FtpCondBean findShare(List<FtpCondBean> shares, Path target) {
+        String username = target.getParent().getFileName().toString();
+        String shareName = target.getFileName().toString();
+        for (FtpCondBean share : shares) {
+            if (share.getUsername().equals(username) && share.getShareName().equals(shareName)) {
+                return share;
             }
         }
-        printDebug("Il percorso non è un mount point: " + path);
-        return false; // Non trovato, quindi non è un mount point
+        return null;
+    }
+
+    // Sorgente del bind mount: la voce di /etc/fstab, oppure quella ricavata da mountinfo se il mount
+    // non è in fstab
+    private String getBindMountSourcePath(MountTable mounts, FstabModel fstab, Path bindMountPath) {
+        printDebug("Determinazione del percorso sorgente per il bind mount: " + bindMountPath);
+        String sourcePath = fstab.getSource(bindMountPath.toString());
+        if (sourcePath != null) {
+            printDebug("Percorso sorgente corrispondente trovato in fstab: " + sourcePath);
+            return sourcePath;
+        }
+        sourcePath = mounts.getBindSource(bindMountPath);
+        if (sourcePath != null) {
+            printDebug("Percorso sorgente ricavato da /proc/self/mountinfo: " + sourcePath);
+        } else {
+            printDebug("Percorso sorgente non determinato per il bind mount: " + bindMountPath);
+        }
+        return sourcePath;
     }
 
-    public void startFtpService() throws IOException {
+    // trigger: azione della GUI che ha richiesto l'operazione, per le statistiche di DowntimeStats
+    public void startFtpService(String trigger) throws IOException {
         printDebug("Tentativo di avvio del servizio FTP.");
-        ProcessBuilder pb = new ProcessBuilder("systemctl", "start", "vsftpd");
-        printDebug("Comando costruito: " + String.join(" ", pb.command()));
-        executeCommand(pb, "Errore durante l'avvio del servizio FTP");
+        List<String> command = Arrays.asList("systemctl", "start", "vsftpd");
+        printDebug("Comando costruito: " + String.join(" ", command));
+        long start = System.nanoTime();
+        CommandExecutor.getDefault().runChecked(command, null, SERVICE_TIMEOUT_MILLIS, "Errore durante l'avvio del servizio FTP");
+        awaitReady();
+        recordDowntime(DowntimeStats.Operation.START, trigger, start);
+        long stoppedAt = stoppedAtNanos;
+        if (stoppedAt != 0) {
+            recordDowntime(DowntimeStats.Operation.STOP_START, trigger, stoppedAt);
+            stoppedAtNanos = 0;
+        }
         printDebug("Servizio FTP avviato con successo.");
     }
 
     public void stopFtpService() throws IOException {
         printDebug("Tentativo di arresto del servizio FTP.");
-        ProcessBuilder pb = new ProcessBuilder("systemctl", "stop", "vsftpd");
-        printDebug("Comando costruito: " + String.join(" ", pb.command()));
-        executeCommand(pb, "Errore durante l'arresto del servizio FTP");
+        List<String> command = Arrays.asList("systemctl", "stop", "vsftpd");
+        printDebug("Comando costruito: " + String.join(" ", command));
+        stoppedAtNanos = System.nanoTime();
+        CommandExecutor.getDefault().runChecked(command, null, SERVICE_TIMEOUT_MILLIS, "Errore durante l'arresto del servizio FTP");
         printDebug("Servizio FTP arrestato con successo.");
     }
 
-    private void executeCommand(ProcessBuilder pb, String errorMessage) throws IOException {
-        printDebug("Esecuzione del comando: " + String.join(" ", pb.command()));
-        try {
-            Process process = pb.start();
-            if (process.waitFor() != 0) {
-                printDebug("Errore durante l'esecuzione del comando: " + String.join(" ", pb.command()));
-                throw new IOException(errorMessage);
-            }
-            printDebug("Comando eseguito con successo: " + String.join(" ", pb.command()));
-        } catch (InterruptedException e) {
-            printDebug("Comando interrotto: " + String.join(" ", pb.command()));
-            Thread.currentThread().interrupt();
-            throw new IOException(errorMessage, e);
+    // In modalità standalone vsftpd rilegge vsftpd.conf con SIGHUP: valido per le nuove sessioni
+    public void reloadFtpService(String trigger) throws IOException {
+        printDebug("Ricaricamento della configurazione FTP.");
+        long start = System.nanoTime();
+        CommandExecutor.getDefault().runChecked(Arrays.asList("systemctl", "reload", "vsftpd"), null, SERVICE_TIMEOUT_MILLIS,
+                "Errore durante il ricaricamento del servizio FTP");
+        recordDowntime(DowntimeStats.Operation.RELOAD, trigger, start);
+        printDebug("Configurazione FTP ricaricata.");
+    }
+
+    public void restartFtpService(String trigger) throws IOException {
+        printDebug("Riavvio del servizio FTP.");
+        long start = System.nanoTime();
+        CommandExecutor.getDefault().runChecked(Arrays.asList("systemctl", "restart", "vsftpd"), null, SERVICE_TIMEOUT_MILLIS,
+                "Errore durante il riavvio del servizio FTP");
+        awaitReady();
+        recordDowntime(DowntimeStats.Operation.RESTART, trigger, start);
+        printDebug("Servizio FTP riavviato con successo.");
+    }
+
+    private void recordDowntime(DowntimeStats.Operation operation, String trigger, long startNanos) {
+        long millis = (System.nanoTime() - startNanos) / 1_000_000;
+        DowntimeStats.Histogram histogram = DowntimeStats.getDefault().record(ServiceChange.Service.FTP, operation, trigger, millis);
+        printDebug("FTP " + operation + " (" + trigger + "): " + millis + " ms; " + histogram);
+    }
+
+    // Porta di vsftpd.conf scritto su disco; vuota se vsftpd non è in modalità standalone (inetd)
+    public List<Integer> getListeningPorts() {
+        boolean standalone = "YES".equalsIgnoreCase(savedConfig.get("listen"))
+                || "YES".equalsIgnoreCase(savedConfig.get("listen_ipv6"));
+        if (!standalone) {
+            return Collections.emptyList();
         }
+        String value = savedConfig.get("listen_port");
+        List<Integer> ports = ServiceReadinessProbe.parsePorts(value == null ? "" : value);
+        return ports.isEmpty() ? Collections.singletonList(DEFAULT_FTP_PORT) : ports;
+    }
+
+    // L'unità di vsftpd è di tipo simple: systemctl ritorna prima che il socket sia aperto
+    private void awaitReady() throws IOException {
+        long start = System.nanoTime();
+        ServiceReadinessProbe.awaitListening("FTP", getListeningPorts(), ServiceReadinessProbe.DEFAULT_TIMEOUT_MILLIS);
+        printDebug("FTP in ascolto su " + getListeningPorts() + " dopo " + (System.nanoTime() - start) / 1_000_000 + " ms.");
     }
 
     public void readConfigFromText(String configText) throws IOException {
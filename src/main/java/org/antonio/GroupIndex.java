@@ -0,0 +1,132 @@
+package org.antonio;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+
+// Indice dei gruppi UNIX letto da /etc/group (membri espliciti) e /etc/passwd (gruppo primario).
+// Serve a risolvere le voci "@gruppo" di "valid users": il file viene riletto solo quando
+// data di modifica o dimensione cambiano, quindi le interrogazioni ripetute costano un solo stat.
+public class GroupIndex {
+    private final Path groupFile;
+    private final Path passwdFile;
+    private FileTime groupTime, passwdTime; // Stato dei file all'ultima lettura
+    private long groupSize = -1, passwdSize = -1;
+    private HashMap<String, LinkedHashSet<String>> membersByGroup; // Gruppo -> utenti
+    private HashMap<String, LinkedHashSet<String>> groupsByUser; // Utente -> gruppi
+
+    public GroupIndex() {
+        this(Paths.get("/etc/group"), Paths.get("/etc/passwd"));
+    }
+
+    public GroupIndex(Path groupFile, Path passwdFile) {
+        this.groupFile = groupFile;
+        this.passwdFile = passwdFile;
+        this.membersByGroup = new HashMap<>();
+        this.groupsByUser = new HashMap<>();
+    }
+
+    // Vero per le voci di "valid users" che indicano un gruppo ("@gruppo", "+gruppo")
+    public static boolean isGroupEntry(String entry) {
+        return !entry.isEmpty() && (entry.charAt(0) == '@' || entry.charAt(0) == '+');
+    }
+
+    // Nome del gruppo senza i prefissi di Samba ("@", "+", "&")
+    public static String groupName(String entry) {
+        int start = 0;
+        while (start < entry.length() && "@+&".indexOf(entry.charAt(start)) >= 0) {
+            start++;
+        }
+        return entry.substring(start);
+    }
+
+    public synchronized Set<String> getMembers(String group) {
+        refresh();
+        LinkedHashSet<String> members = membersByGroup.get(group);
+        return members == null ? Collections.emptySet() : Collections.unmodifiableSet(members);
+    }
+
+    public synchronized Set<String> getGroups(String username) {
+        refresh();
+        LinkedHashSet<String> groups = groupsByUser.get(username);
+        return groups == null ? Collections.emptySet() : Collections.unmodifiableSet(groups);
+    }
+
+    public synchronized boolean exists(String group) {
+        refresh();
+        return membersByGroup.containsKey(group);
+    }
+
+    public synchronized List<String> getGroupNames() {
+        refresh();
+        ArrayList<String> names = new ArrayList<>(membersByGroup.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    private void refresh() {
+        try {
+            BasicFileAttributes group = Files.readAttributes(groupFile, BasicFileAttributes.class);
+            BasicFileAttributes passwd = Files.readAttributes(passwdFile, BasicFileAttributes.class);
+            if (group.lastModifiedTime().equals(groupTime) && group.size() == groupSize
+                    && passwd.lastModifiedTime().equals(passwdTime) && passwd.size() == passwdSize) {
+                return;
+            }
+            reload();
+            groupTime = group.lastModifiedTime();
+            groupSize = group.size();
+            passwdTime = passwd.lastModifiedTime();
+            passwdSize = passwd.size();
+        } catch (IOException e) {
+            // Si continua con l'ultimo indice valido; il prossimo accesso riproverà la lettura
+            groupTime = null;
+            passwdTime = null;
+        }
+    }
+
+    private void reload() throws IOException {
+        HashMap<String, LinkedHashSet<String>> members = new HashMap<>();
+        HashMap<String, String> groupByGid = new HashMap<>();
+
+        // nome:password:gid:utente1,utente2
+        for (String line : Files.readAllLines(groupFile, StandardCharsets.UTF_8)) {
+            String[] parts = line.split(":", -1);
+            if (parts.length < 4 || parts[0].isEmpty()) {
+                continue;
+            }
+            LinkedHashSet<String> groupMembers = members.computeIfAbsent(parts[0], k -> new LinkedHashSet<>());
+            groupByGid.putIfAbsent(parts[2], parts[0]);
+            for (String member : parts[3].split(",")) {
+                if (!member.isEmpty()) {
+                    groupMembers.add(member);
+                }
+            }
+        }
+
+        // nome:password:uid:gid:...: il gruppo primario non compare tra i membri di /etc/group
+        for (String line : Files.readAllLines(passwdFile, StandardCharsets.UTF_8)) {
+            String[] parts = line.split(":", -1);
+            if (parts.length < 4 || parts[0].isEmpty()) {
+                continue;
+            }
+            String primary = groupByGid.get(parts[3]);
+            if (primary != null) {
+                members.get(primary).add(parts[0]);
+            }
+        }
+
+        HashMap<String, LinkedHashSet<String>> groups = new HashMap<>();
+        for (Map.Entry<String, LinkedHashSet<String>> entry : members.entrySet()) {
+            for (String member : entry.getValue()) {
+                groups.computeIfAbsent(member, k -> new LinkedHashSet<>()).add(entry.getKey());
+            }
+        }
+        membersByGroup = members;
+        groupsByUser = groups;
+    }
+}
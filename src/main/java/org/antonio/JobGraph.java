@@ -0,0 +1,231 @@
+package org.antonio;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Operazione composta da più passi con dipendenze (es. creazione di un utente: useradd, gruppo,
+// password, Samba, FTP). Ogni passo parte appena i passi da cui dipende sono terminati, quindi i
+// passi indipendenti girano in parallelo. I passi che modificano lo stesso file dichiarano la
+// stessa risorsa e non si sovrappongono, nemmeno tra operazioni diverse eseguite insieme; il codice
+// che scrive gli stessi file fuori da un grafo prende la risorsa con lock().
+public class JobGraph {
+
+    // File o database di sistema condivisi tra i passi
+    public enum Resource {
+        ACCOUNTS,     // /etc/passwd, /etc/group, /etc/shadow
+        PASSDB,       // Database utenti di Samba
+        SMB_CONF,     // smb.conf e i file inclusi
+        FSTAB,        // /etc/fstab
+        FTP_USERLIST  // vsftpd.userlist
+    }
+
+    public enum Status {PENDING, RUNNING, DONE, FAILED, SKIPPED}
+
+    public interface Action {
+        void run() throws Exception;
+    }
+
+    // Notificato da thread diversi, uno per passo
+    public interface ProgressListener {
+        void stepStarted(Step step);
+
+        void stepFinished(Step step);
+    }
+
+    private static final EnumMap<Resource, ReentrantLock> LOCKS = new EnumMap<>(Resource.class);
+    private static final ExecutorService POOL = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "job-graph");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        for (Resource resource : Resource.values()) {
+            LOCKS.put(resource, new ReentrantLock(true));
+        }
+    }
+
+    public static final class Step {
+        private final String name;
+        private final String description;
+        private final Action action;
+        private final EnumSet<Resource> resources;
+        private final List<Step> dependencies;
+        private volatile Status status = Status.PENDING;
+        private volatile long durationMillis;
+        private volatile Throwable error;
+
+        private Step(String name, String description, Action action, EnumSet<Resource> resources, List<Step> dependencies) {
+            this.name = name;
+            this.description = description;
+            this.action = action;
+            this.resources = resources;
+            this.dependencies = dependencies;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        public Throwable getError() {
+            return error;
+        }
+
+        public Set<Resource> getResources() {
+            return Collections.unmodifiableSet(resources);
+        }
+    }
+
+    // Risorse tenute fuori da un grafo, da rilasciare con release() in un blocco finally
+    public static final class Lease {
+        private final List<ReentrantLock> held;
+
+        private Lease(List<ReentrantLock> held) {
+            this.held = held;
+        }
+
+        public void release() {
+            unlock(held);
+        }
+    }
+
+    // Blocca le risorse per una scrittura fatta fuori da un grafo (es. un salvataggio dalla GUI),
+    // così non si sovrappone ai passi che dichiarano le stesse risorse
+    public static Lease lock(Set<Resource> resources) {
+        ArrayList<ReentrantLock> held = new ArrayList<>();
+        for (Resource resource : EnumSet.copyOf(resources)) {
+            ReentrantLock lock = LOCKS.get(resource);
+            lock.lock();
+            held.add(lock);
+        }
+        return new Lease(held);
+    }
+
+    private static void unlock(List<ReentrantLock> held) {
+        for (int i = held.size() - 1; i >= 0; i--) {
+            held.get(i).unlock();
+        }
+    }
+
+    private final String name;
+    private final LinkedHashMap<String, Step> steps = new LinkedHashMap<>();
+
+    public JobGraph(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<Step> getSteps() {
+        return new ArrayList<>(steps.values());
+    }
+
+    // Le dipendenze devono essere già state aggiunte: così il grafo non può contenere cicli
+    public Step addStep(String stepName, String description, Action action, Set<Resource> resources, String... dependsOn) {
+        if (steps.containsKey(stepName)) {
+            throw new IllegalArgumentException("Passo duplicato: " + stepName);
+        }
+        ArrayList<Step> dependencies = new ArrayList<>();
+        for (String dependency : dependsOn) {
+            Step step = steps.get(dependency);
+            if (step == null) {
+                throw new IllegalArgumentException("Dipendenza sconosciuta per " + stepName + ": " + dependency);
+            }
+            dependencies.add(step);
+        }
+        EnumSet<Resource> lockSet = resources.isEmpty() ? EnumSet.noneOf(Resource.class) : EnumSet.copyOf(resources);
+        Step step = new Step(stepName, description, action, lockSet, dependencies);
+        steps.put(stepName, step);
+        return step;
+    }
+
+    public boolean hasStep(String stepName) {
+        return steps.containsKey(stepName);
+    }
+
+    // Esegue tutti i passi e attende la fine. Se un passo fallisce, quelli che ne dipendono vengono
+    // saltati mentre gli altri proseguono; alla fine viene lanciata una IOException con il primo errore.
+    public void run(ProgressListener listener) throws IOException, InterruptedException {
+        HashMap<Step, CompletableFuture<Void>> futures = new HashMap<>();
+        for (Step step : steps.values()) {
+            CompletableFuture<?>[] before = new CompletableFuture<?>[step.dependencies.size()];
+            for (int i = 0; i < before.length; i++) {
+                before[i] = futures.get(step.dependencies.get(i));
+            }
+            // I futuri dei passi non falliscono mai: l'esito è nello stato del passo
+            futures.put(step, CompletableFuture.allOf(before).thenRunAsync(() -> execute(step, listener), POOL));
+        }
+
+        try {
+            CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0])).get();
+        } catch (ExecutionException e) {
+            throw new IOException("Errore inatteso durante " + name, e.getCause());
+        }
+
+        for (Step step : steps.values()) {
+            if (step.status == Status.FAILED) {
+                Throwable error = step.error;
+                if (error instanceof IOException) {
+                    throw (IOException) error;
+                }
+                throw new IOException(step.description + ": " + error.getMessage(), error);
+            }
+        }
+    }
+
+    private static void execute(Step step, ProgressListener listener) {
+        for (Step dependency : step.dependencies) {
+            if (dependency.status != Status.DONE) {
+                step.status = Status.SKIPPED;
+                listener.stepFinished(step);
+                return;
+            }
+        }
+
+        // Le risorse vengono bloccate sempre nello stesso ordine, così due grafi non si bloccano a vicenda
+        ArrayList<ReentrantLock> held = new ArrayList<>();
+        long start = System.nanoTime();
+        try {
+            for (Resource resource : step.resources) {
+                ReentrantLock lock = LOCKS.get(resource);
+                lock.lockInterruptibly();
+                held.add(lock);
+            }
+            step.status = Status.RUNNING;
+            listener.stepStarted(step);
+            step.action.run();
+            step.status = Status.DONE;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            step.error = e;
+            step.status = Status.FAILED;
+        } catch (Throwable e) {
+            step.error = e;
+            step.status = Status.FAILED;
+        } finally {
+            unlock(held);
+            step.durationMillis = (System.nanoTime() - start) / 1_000_000;
+        }
+        listener.stepFinished(step);
+        // Un Error (es. OutOfMemoryError) non va nascosto, ma solo dopo aver registrato l'esito del passo
+        if (step.error instanceof Error) {
+            throw (Error) step.error;
+        }
+    }
+}
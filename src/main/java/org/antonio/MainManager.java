@@ -2,22 +2,49 @@ package org.antonio;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.*;
 import java.awt.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class MainManager {
 
+    private static final long STATUS_TIMEOUT_MILLIS = 5_000; // Controlli periodici di servizi e pacchetti
+    private static final int VALIDATION_DELAY_MILLIS = 400; // Pausa di digitazione prima di ricontrollare smb.conf
+
+    // Modello da cui ereditano le nuove condivisioni Samba (sezione [_tpl_default] di smb.conf)
+    private static final String DEFAULT_SHARE_TEMPLATE = "default";
+    private static final Map<String, String> DEFAULT_SHARE_SETTINGS = new LinkedHashMap<>();
+
+    static {
+        DEFAULT_SHARE_SETTINGS.put("browsable", "yes");
+        DEFAULT_SHARE_SETTINGS.put("writable", "yes");
+        DEFAULT_SHARE_SETTINGS.put("guest ok", "no");
+        DEFAULT_SHARE_SETTINGS.put("create mask", "0664");
+        DEFAULT_SHARE_SETTINGS.put("directory mask", "0775");
+    }
+
     private SambaManager sambaManager;
     private FtpManager ftpManager;
     private UsersManager usersManager;
+    private ServiceChangeEngine serviceChangeEngine; // Ricarica o riavvia i servizi solo quando serve
+    private ServiceApplyOrchestrator applyOrchestrator; // Unisce le richieste di riavvio ravvicinate
     private JFrame mainFrame;
     private JList<String> userList;
     private JCheckBox ftpCheckbox, sambaCheckbox;
     private JList<String> ftpShareList, sambaShareList;
-    private JButton manageUserButton, deleteShareButton, addShareButton, sambaButton, ftpButton, infoShareButton, addUserButton, deleteUserButton, configSambaButton, configFtpButton;
-    private JLabel sambaStatusLabel, ftpStatusLabel;
+    private JButton manageUserButton, deleteShareButton, addShareButton, sambaButton, ftpButton, infoShareButton, addUserButton, deleteUserButton, configSambaButton, configFtpButton, downtimeButton;
+    private JLabel sambaStatusLabel, ftpStatusLabel, pendingApplyLabel;
     private JPanel userDetailPanel, configButtonPanel, mainPanel, statusPanel, userButtonsPanel;
     private boolean debugEnabled; // Flag per il debug
 
@@ -108,10 +135,22 @@ public class MainManager {
             // Inizializza i manager
             printDebug("Inizializzazione di SambaManager.");
             sambaManager = new SambaManager("/etc/samba/smb.conf");
+            // Con -Dsambaftp.smb.layout=include ogni nuova condivisione va in un file di /etc/samba/smb.conf.d,
+            // con -Dsambaftp.smb.layout=usershare diventa una usershare
+            String layout = System.getProperty("sambaftp.smb.layout", "");
+            if (layout.equalsIgnoreCase("include")) {
+                sambaManager.setDefaultShareStore(ShareStore.INCLUDE_FILE);
+            } else if (layout.equalsIgnoreCase("usershare")) {
+                sambaManager.setDefaultShareStore(ShareStore.USERSHARE);
+            }
             printDebug("Inizializzazione di FtpManager.");
             ftpManager = new FtpManager("/etc/vsftpd.conf", "/etc/vsftpd.userlist");
             printDebug("Inizializzazione di UsersManager.");
             usersManager = new UsersManager(sambaManager, ftpManager);
+            serviceChangeEngine = new ServiceChangeEngine(sambaManager, ftpManager);
+            // Con -Dsambaftp.apply.window.ms=N si cambia la finestra in cui le richieste vengono unite
+            applyOrchestrator = new ServiceApplyOrchestrator(serviceChangeEngine,
+                    Long.getLong("sambaftp.apply.window.ms", ServiceApplyOrchestrator.DEFAULT_WINDOW_MILLIS));
 
             // Sezione di Debug
             debugSystem(sambaManager, ftpManager, usersManager);
@@ -124,6 +163,10 @@ public class MainManager {
             printDebug("Avvio del timer per l'aggiornamento dello stato.");
             startStatusUpdateTimer();
 
+            // Le condivisioni FTP seguono i mount fatti anche da fuori dell'applicazione
+            printDebug("Avvio dell'ascolto delle modifiche ai mount.");
+            ftpManager.startMountWatcher(SwingUtilities::invokeLater, this::refreshFtpShareList);
+
             printDebug("MainManager inizializzato correttamente.");
         } catch (IOException e) {
             printDebug("Errore durante l'inizializzazione di MainManager: " + e.getMessage());
@@ -151,8 +194,8 @@ public class MainManager {
             System.out.println("SambaShare n" + (i + 1));
             System.out.println("Name: " + share.getName());
             System.out.println("Properties:");
-            for (String[] property : share.getProperties()) {
-                System.out.println("  Key: " + property[0] + ", Value: " + property[1]);
+            for (Map.Entry<String, String> property : share.getProperties()) {
+                System.out.println("  Key: " + property.getKey() + ", Value: " + property.getValue());
             }
             System.out.println("Valid Users: " + String.join(", ", share.getValidUsers()));
             System.out.println("-----------------------------------------");
@@ -160,7 +203,7 @@ public class MainManager {
 
         // Utenti abilitati a Samba
         System.out.println("=== DEBUG: Samba Users ===");
-        ArrayList<String> sambaUsers = sambaManager.getSambaUsers();
+        Set<String> sambaUsers = sambaManager.getSambaUsers();
         if (sambaUsers.isEmpty()) {
             System.out.println("Nessun utente abilitato a Samba.");
         } else {
@@ -270,6 +313,18 @@ public class MainManager {
         printDebug("Inizio inizializzazione della GUI.");
         mainFrame = new JFrame("Gestione Utenti e Servizi");
         mainFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        mainFrame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                ftpManager.stopMountWatcher();
+                // Le modifiche salvate ma non ancora applicate non devono andare perse all'uscita
+                try {
+                    applyOrchestrator.flush();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
         mainFrame.setSize(1000, 600);
         mainFrame.setLayout(new BorderLayout(10, 10));
         printDebug("Main frame creato con dimensioni 1000x600 e layout BorderLayout.");
@@ -295,7 +350,7 @@ public class MainManager {
                     sambaManager.stopSambaService();
                 } else {
                     printDebug("Servizio Samba inattivo. Tentativo di avvio.");
-                    sambaManager.startSambaService();
+                    sambaManager.startSambaService("pulsante Start SAMBA");
                 }
             } catch (IOException ex) {
                 printDebug("Errore durante la gestione del servizio Samba: " + ex.getMessage());
@@ -311,7 +366,7 @@ public class MainManager {
                     ftpManager.stopFtpService();
                 } else {
                     printDebug("Servizio FTP inattivo. Tentativo di avvio.");
-                    ftpManager.startFtpService();
+                    ftpManager.startFtpService("pulsante Start FTP");
                 }
             } catch (IOException ex) {
                 printDebug("Errore durante la gestione del servizio FTP: " + ex.getMessage());
@@ -323,8 +378,27 @@ public class MainManager {
         statusPanel.add(ftpStatusLabel);
         statusPanel.add(sambaButton);
         statusPanel.add(ftpButton);
+
+        // Stato unico delle modifiche in attesa di essere applicate ai servizi
+        pendingApplyLabel = new JLabel("Nessuna modifica in attesa", SwingConstants.CENTER);
+        applyOrchestrator.addListener(new ServiceApplyOrchestrator.Listener() {
+            @Override
+            public void stateChanged(ServiceApplyOrchestrator.State state, String description) {
+                printDebug("Applicazione ai servizi: " + state + " - " + description);
+                SwingUtilities.invokeLater(() -> pendingApplyLabel.setText(description));
+            }
+
+            @Override
+            public void applyFailed(String message) {
+                printDebug("Errore durante l'applicazione delle modifiche ai servizi: " + message);
+                SwingUtilities.invokeLater(() -> showErrorDialog("Errore durante l'applicazione delle modifiche ai servizi: " + message));
+            }
+        });
+        JPanel northPanel = new JPanel(new BorderLayout(0, 5));
+        northPanel.add(statusPanel, BorderLayout.CENTER);
+        northPanel.add(pendingApplyLabel, BorderLayout.SOUTH);
         printDebug("Pannello superiore completato e aggiunto al frame principale.");
-        mainFrame.add(statusPanel, BorderLayout.NORTH);
+        mainFrame.add(northPanel, BorderLayout.NORTH);
 
         // Pannello principale con lista utenti e dettagli
         printDebug("Creazione del pannello principale con lista utenti e dettagli.");
@@ -400,14 +474,17 @@ public class MainManager {
 
         // Pannello inferiore per Config SAMBA e Config FTP
         printDebug("Creazione del pannello inferiore per le configurazioni.");
-        configButtonPanel = new JPanel(new GridLayout(1, 2, 10, 10));
+        configButtonPanel = new JPanel(new GridLayout(1, 3, 10, 10));
         configSambaButton = new JButton("Config SAMBA");
         configFtpButton = new JButton("Config FTP");
+        downtimeButton = new JButton("Tempi di riavvio");
         configSambaButton.addActionListener(e -> handleSambaConfigButton());
         configFtpButton.addActionListener(e -> handleFtpConfigButton());
+        downtimeButton.addActionListener(e -> showDowntimeStats());
         configButtonPanel.setBorder(BorderFactory.createTitledBorder("Configurazioni Globali"));
         configButtonPanel.add(configSambaButton);
         configButtonPanel.add(configFtpButton);
+        configButtonPanel.add(downtimeButton);
         mainFrame.add(configButtonPanel, BorderLayout.SOUTH);
 
         mainFrame.add(mainPanel, BorderLayout.CENTER);
@@ -765,14 +842,12 @@ public class MainManager {
     private boolean isPackageInstalled(String packageName) {
         printDebug("Verifica se il pacchetto è installato: " + packageName);
         try {
-            ProcessBuilder pb = new ProcessBuilder("dpkg", "-l", packageName);
-            printDebug("Esecuzione del comando: " + String.join(" ", pb.command()));
-            Process process = pb.start();
-            int exitCode = process.waitFor();
-            boolean isInstalled = exitCode == 0;
+            List<String> command = Arrays.asList("dpkg", "-l", packageName);
+            printDebug("Esecuzione del comando: " + String.join(" ", command));
+            boolean isInstalled = CommandExecutor.getDefault().run(command, null, STATUS_TIMEOUT_MILLIS).isSuccess();
             printDebug("Pacchetto " + packageName + (isInstalled ? " installato." : " non installato."));
             return isInstalled;
-        } catch (IOException | InterruptedException e) {
+        } catch (IOException e) {
             printDebug("Errore durante il controllo del pacchetto " + packageName + ": " + e.getMessage());
             System.err.println("Errore durante il controllo del pacchetto " + packageName + ": " + e.getMessage());
             return false;
@@ -783,14 +858,12 @@ public class MainManager {
     private boolean isServiceActive(String serviceName) {
         //printDebug("Verifica se il servizio è attivo: " + serviceName);
         try {
-            ProcessBuilder pb = new ProcessBuilder("systemctl", "is-active", "--quiet", serviceName);
-            //printDebug("Esecuzione del comando: " + String.join(" ", pb.command()));
-            Process process = pb.start();
-            int exitCode = process.waitFor();
-            boolean isActive = exitCode == 0;
+            List<String> command = Arrays.asList("systemctl", "is-active", "--quiet", serviceName);
+            //printDebug("Esecuzione del comando: " + String.join(" ", command));
+            boolean isActive = CommandExecutor.getDefault().run(command, null, STATUS_TIMEOUT_MILLIS).isSuccess();
             //printDebug("Servizio " + serviceName + (isActive ? " attivo." : " inattivo."));
             return isActive;
-        } catch (IOException | InterruptedException e) {
+        } catch (IOException e) {
             printDebug("Errore durante il controllo del servizio " + serviceName + ": " + e.getMessage());
             System.err.println("Errore durante il controllo del servizio " + serviceName + ": " + e.getMessage());
             return false;
@@ -807,9 +880,9 @@ public class MainManager {
         // Crea la finestra
         JDialog addShareDialog = new JDialog(mainFrame, "Aggiungi Condivisione per: " + selectedUser, true);
         addShareDialog.setLayout(new BorderLayout(10, 10));
-        addShareDialog.setSize(500, 450);
+        addShareDialog.setSize(500, 480);
         addShareDialog.setLocationRelativeTo(mainFrame);
-        printDebug("Finestra di dialogo creata con dimensioni 500x450.");
+        printDebug("Finestra di dialogo creata con dimensioni 500x480.");
 
         // Checkbox per FTP e Samba
         JCheckBox ftpCheckBox = new JCheckBox("FTP");
@@ -850,6 +923,14 @@ public class MainManager {
         JTextField sambaCreateMaskField = new JTextField("0664");
         JLabel sambaDirectoryMaskLabel = new JLabel("Directory Mask:");
         JTextField sambaDirectoryMaskField = new JTextField("0775");
+        // Gruppo opzionale: la condivisione viene concessa a "@gruppo" invece di elencare ogni utente
+        JLabel sambaGroupLabel = new JLabel("Gruppo (facoltativo):");
+        JComboBox<String> sambaGroupField = new JComboBox<>();
+        sambaGroupField.setEditable(true);
+        sambaGroupField.addItem("");
+        for (String group : sambaManager.getGroupIndex().getGroupNames()) {
+            sambaGroupField.addItem(group);
+        }
 
         printDebug("Campi specifici per Samba creati e configurati.");
 
@@ -860,6 +941,7 @@ public class MainManager {
         sambaGuestOkField.setEnabled(false);
         sambaCreateMaskField.setEnabled(false);
         sambaDirectoryMaskField.setEnabled(false);
+        sambaGroupField.setEnabled(false);
         printDebug("Campi Samba disabilitati inizialmente.");
 
         // Listener per abilitare/disabilitare i campi Samba
@@ -872,6 +954,7 @@ public class MainManager {
             sambaGuestOkField.setEnabled(enabled);
             sambaCreateMaskField.setEnabled(enabled);
             sambaDirectoryMaskField.setEnabled(enabled);
+            sambaGroupField.setEnabled(enabled);
         });
 
         // Listener per il pulsante di selezione della cartella
@@ -908,6 +991,8 @@ public class MainManager {
         inputPanel.add(sambaCreateMaskField);
         inputPanel.add(sambaDirectoryMaskLabel);
         inputPanel.add(sambaDirectoryMaskField);
+        inputPanel.add(sambaGroupLabel);
+        inputPanel.add(sambaGroupField);
         printDebug("Campi e layout del pannello input completati.");
 
         // Pulsanti
@@ -933,6 +1018,26 @@ public class MainManager {
                     return;
                 }
 
+                // Voci da aggiungere ai valid users: l'utente oppure "@gruppo"
+                ArrayList<String> validUsers = new ArrayList<>();
+                Object groupItem = sambaGroupField.getEditor().getItem();
+                String group = groupItem == null ? "" : GroupIndex.groupName(groupItem.toString().trim());
+                if (sambaCheckBox.isSelected() && !group.isEmpty()) {
+                    if (!sambaManager.getGroupIndex().exists(group)) {
+                        printDebug("Errore: Gruppo inesistente: " + group);
+                        showErrorDialog("Il gruppo '" + group + "' non esiste.");
+                        return;
+                    }
+                    validUsers.add("@" + group);
+                    // Se l'utente non fa parte del gruppo viene comunque elencato per nome
+                    if (!sambaManager.getGroupIndex().getMembers(group).contains(selectedUser)) {
+                        validUsers.add(selectedUser);
+                    }
+                    printDebug("Condivisione concessa al gruppo: " + group);
+                } else {
+                    validUsers.add(selectedUser);
+                }
+
                 // Gestione FTP
                 if (ftpCheckBox.isSelected()) {
                     printDebug("Gestione FTP selezionata.");
@@ -962,11 +1067,8 @@ public class MainManager {
 
                     // Controllo per nome duplicato con percorso diverso
                     printDebug("Controllo per nome duplicato con percorso diverso...");
-                    boolean nameConflict = sambaManager.getAllShares().stream()
-                            .anyMatch(share -> share.getName().equalsIgnoreCase(shareName) &&
-                                    share.getProperties().stream()
-                                            .noneMatch(property -> property[0].equalsIgnoreCase("path") &&
-                                                    property[1].equals(path)));
+                    SmbCondBean sameName = sambaManager.getShare(shareName);
+                    boolean nameConflict = sameName != null && !path.equals(sameName.getProperty("path"));
 
                     if (nameConflict) {
                         printDebug("Conflitto rilevato: Esiste già una condivisione Samba con lo stesso nome ma un percorso diverso.");
@@ -978,15 +1080,16 @@ public class MainManager {
                     // Controllo per percorso già condiviso
                     printDebug("Controllo per percorso già condiviso...");
                     SmbCondBean existingShare = sambaManager.getAllShares().stream()
-                            .filter(share -> share.getProperties().stream()
-                                    .anyMatch(property -> property[0].equalsIgnoreCase("path") && property[1].equals(path)))
+                            .filter(share -> path.equals(share.getProperty("path")))
                             .findFirst()
                             .orElse(null);
 
                     if (existingShare != null) {
                         printDebug("Percorso già condiviso rilevato con il nome: " + existingShare.getName());
-                        // Aggiungi l'utente ai valid users
-                        existingShare.addValidUser(selectedUser);
+                        // Aggiungi l'utente (o il gruppo) ai valid users
+                        for (String validUser : validUsers) {
+                            existingShare.addValidUser(validUser);
+                        }
                         sambaManager.modifyShare(existingShare.getName(), existingShare);
                         printDebug("Utente aggiunto ai valid users della condivisione esistente: " + existingShare.getName());
 
@@ -996,16 +1099,21 @@ public class MainManager {
                     } else {
                         printDebug("Percorso non condiviso. Creazione di una nuova condivisione Samba...");
 
-                        // Crea una nuova condivisione
-                        SmbCondBean sambaShare = new SmbCondBean(shareName);
-                        sambaShare.addProperty("path", path);
-                        sambaShare.addProperty("comment", sambaCommentField.getText());
-                        sambaShare.addProperty("browsable", sambaBrowsableField.getText());
-                        sambaShare.addProperty("writable", sambaWritableField.getText());
-                        sambaShare.addProperty("guest ok", sambaGuestOkField.getText());
-                        sambaShare.addProperty("create mask", sambaCreateMaskField.getText());
-                        sambaShare.addProperty("directory mask", sambaDirectoryMaskField.getText());
-                        sambaShare.addValidUser(selectedUser);
+                        // Crea una nuova condivisione a partire dal modello predefinito: in smb.conf
+                        // finiscono solo il percorso e i valori diversi da quelli del modello
+                        sambaManager.ensureTemplate(DEFAULT_SHARE_TEMPLATE, DEFAULT_SHARE_SETTINGS);
+                        LinkedHashMap<String, String> values = new LinkedHashMap<>();
+                        values.put("path", path);
+                        values.put("comment", sambaCommentField.getText());
+                        values.put("browsable", sambaBrowsableField.getText());
+                        values.put("writable", sambaWritableField.getText());
+                        values.put("guest ok", sambaGuestOkField.getText());
+                        values.put("create mask", sambaCreateMaskField.getText());
+                        values.put("directory mask", sambaDirectoryMaskField.getText());
+                        SmbCondBean sambaShare = sambaManager.newShareFromTemplate(shareName, DEFAULT_SHARE_TEMPLATE, values);
+                        for (String validUser : validUsers) {
+                            sambaShare.addValidUser(validUser);
+                        }
                         sambaManager.addShare(sambaShare);
 
                         printDebug("Nuova condivisione Samba creata con il nome: " + shareName + " e percorso: " + path);
@@ -1118,7 +1226,10 @@ public class MainManager {
                         .findFirst()
                         .orElse(null);
 
-                if (sambaShare != null) {
+                if (sambaShare != null && !sambaShare.getValidUsers().contains(selectedUser)) {
+                    printDebug("Accesso tramite gruppo, l'utente non è elencato: " + sambaShare.getName());
+                    showInfoDialog("L'utente accede a '" + sambaShare.getName() + "' tramite un gruppo: per revocare l'accesso modificare i membri del gruppo.");
+                } else if (sambaShare != null) {
                     printDebug("Condivisione Samba trovata: " + sambaShare.getName());
                     sambaShare.removeValidUser(selectedUser);
                     printDebug("Utente rimosso dai valid users della condivisione: " + sambaShare.getName());
@@ -1148,7 +1259,7 @@ public class MainManager {
         // Chiedi conferma all'utente
         int confirm = JOptionPane.showConfirmDialog(
                 null,
-                "Sei sicuro di voler salvare le modifiche? I servizi FTP e Samba saranno riavviati.",
+                "Sei sicuro di voler salvare le modifiche? I servizi FTP e Samba saranno ricaricati o riavviati solo se necessario.",
                 "Conferma Salvataggio",
                 JOptionPane.YES_NO_OPTION,
                 JOptionPane.WARNING_MESSAGE
@@ -1160,11 +1271,6 @@ public class MainManager {
         }
 
         try {
-            // Disattiva i servizi Samba e FTP
-            printDebug("Arresto dei servizi Samba e FTP.");
-            sambaManager.stopSambaService();
-            ftpManager.stopFtpService();
-
             // Ottieni l'utente selezionato
             String selectedUser = userList.getSelectedValue();
             printDebug("Utente selezionato: " + (selectedUser != null ? selectedUser : "Nessuno"));
@@ -1216,8 +1322,7 @@ public class MainManager {
                 } else {
                     printDebug("Operazione annullata: Password Samba non fornita.");
                     showErrorDialog("Operazione annullata: la password per Samba è obbligatoria.");
-                    sambaManager.startSambaService();
-                    ftpManager.startFtpService();
+                    applyServiceChanges("saveUserChanges"); // Le modifiche FTP già salvate restano valide
                     return; // Interrompi l'operazione
                 }
             } else if (!sambaCheckbox.isSelected() && user.isSambaEnabled()) {
@@ -1231,13 +1336,23 @@ public class MainManager {
             // Salvataggio configurazioni solo se il servizio era già abilitato
             if (ftpCheckbox.isSelected() && user.isFtpEnabled()) {
                 printDebug("Salvataggio configurazioni FTP su disco.");
-                ftpManager.saveSharesOnDisk();
+                JobGraph.Lease lease = JobGraph.lock(EnumSet.of(JobGraph.Resource.FSTAB));
+                try {
+                    ftpManager.saveSharesOnDisk();
+                } finally {
+                    lease.release();
+                }
                 changesYesOrNot = true;
             }
 
             if (sambaCheckbox.isSelected() && user.isSambaEnabled()) {
                 printDebug("Salvataggio configurazioni Samba.");
-                sambaManager.updateConfig();
+                JobGraph.Lease lease = JobGraph.lock(EnumSet.of(JobGraph.Resource.SMB_CONF));
+                try {
+                    sambaManager.updateConfig();
+                } finally {
+                    lease.release();
+                }
                 changesYesOrNot = true;
             }
 
@@ -1246,12 +1361,10 @@ public class MainManager {
                 printDebug("Aggiornati i permessi per l'utente: " + selectedUser + " sulle eventuali nuove condivisioni.");
             }
 
-            // Riavvia i servizi Samba e FTP
-            printDebug("Riavvio dei servizi Samba e FTP.");
-            sambaManager.startSambaService();
-            ftpManager.startFtpService();
+            // Ricarica o riavvia i servizi solo se le modifiche lo richiedono
+            String applied = applyServiceChanges("saveUserChanges");
 
-            showInfoDialog("Modifiche salvate con successo e servizi riavviati.");
+            showInfoDialog("Modifiche salvate con successo (" + applied + ").");
             printDebug("Salvataggio delle modifiche completato con successo.");
         } catch (IOException e) {
             printDebug("Errore durante il salvataggio delle modifiche: " + e.getMessage());
@@ -1262,6 +1375,47 @@ public class MainManager {
         }
     }
 
+    // Aggiorna la lista delle condivisioni FTP se riguarda l'utente selezionato
+    private void refreshFtpShareList(String username) {
+        if (!username.equals(userList.getSelectedValue()) || !ftpCheckbox.isSelected()) {
+            return;
+        }
+        String selected = ftpShareList.getSelectedValue();
+        ftpShareList.setListData(ftpManager.getSharesByUser(username).stream()
+                .map(FtpCondBean::getShareName)
+                .toArray(String[]::new));
+        ftpShareList.setSelectedValue(selected, false);
+        printDebug("Lista condivisioni FTP aggiornata dopo una modifica ai mount per: " + username);
+    }
+
+    // Istogrammi dei tempi di indisponibilità dei servizi, per servizio e azione che li ha causati
+    private void showDowntimeStats() {
+        String report = DowntimeStats.getDefault().format();
+        printDebug("Tempi di riavvio dei servizi:\n" + report);
+
+        JTextArea textArea = new JTextArea(report);
+        textArea.setEditable(false);
+        textArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+
+        JScrollPane scrollPane = new JScrollPane(textArea);
+        scrollPane.setPreferredSize(new Dimension(600, 400));
+
+        JOptionPane.showMessageDialog(
+                mainFrame,
+                scrollPane,
+                "Tempi di avvio, riavvio e ricaricamento dei servizi",
+                JOptionPane.INFORMATION_MESSAGE
+        );
+    }
+
+    // Passa le modifiche salvate all'orchestratore, che le applica insieme alle altre richieste
+    // arrivate nella stessa finestra; restituisce cosa resta da fare sui servizi
+    private String applyServiceChanges(String trigger) {
+        EnumMap<ServiceChange.Service, ServiceChangeEngine.Action> plan = applyOrchestrator.requestApply(trigger);
+        printDebug("Azioni in attesa sui servizi: " + plan);
+        return ServiceApplyOrchestrator.describePlan(plan);
+    }
+
     private void deleteUser(String username) {
         printDebug("Avvio del processo di eliminazione dell'utente: " + username);
 
@@ -1283,6 +1437,7 @@ public class MainManager {
             printDebug("Invocazione di UserManager.removeUser per l'utente: " + username);
             usersManager.removeUser(username);
             printDebug("Utente rimosso con successo: " + username);
+            applyServiceChanges("deleteUser"); // Le condivisioni Samba che elencavano l'utente sono cambiate
 
             // Mostra dialog di conferma
             printDebug("Mostra dialog di conferma per l'eliminazione dell'utente: " + username);
@@ -1403,17 +1558,39 @@ public class MainManager {
         frame.setSize(800, 600);
 
         // Carica la configurazione attuale dal SambaManager
-        String currentConfig = sambaManager.getFormattedGlobalSettings()
-                + "\n"
-                + sambaManager.getFormattedHomeSettings()
-                + "\n"
-                + sambaManager.getFormattedShares();
+        String currentConfig = sambaManager.getFormattedConfig();
 
         // Aggiungi una Text Area per visualizzare e modificare il contenuto
         JTextArea textArea = new JTextArea(currentConfig);
         textArea.setFont(new Font("Monospaced", Font.PLAIN, 12)); // Font per file di configurazione
         JScrollPane scrollPane = new JScrollPane(textArea);
 
+        // Controllo del testo durante la modifica, dopo una breve pausa di digitazione
+        SmbConfValidator validator = new SmbConfValidator();
+        List<String> externalSections = sambaManager.getExternalSectionNames();
+        JLabel validationLabel = new JLabel(" ");
+        validationLabel.setBorder(new EmptyBorder(2, 5, 2, 5));
+        Timer validationTimer = new Timer(VALIDATION_DELAY_MILLIS,
+                e -> showValidation(validationLabel, validator.validate(textArea.getText(), externalSections)));
+        validationTimer.setRepeats(false);
+        textArea.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                validationTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                validationTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                validationTimer.restart();
+            }
+        });
+        showValidation(validationLabel, validator.validate(currentConfig, externalSections));
+
         // Aggiungi i pulsanti Salva e Annulla
         JButton saveButton = new JButton("Salva");
         JButton cancelButton = new JButton("Annulla");
@@ -1421,31 +1598,48 @@ public class MainManager {
         JPanel buttonPanel = new JPanel();
         buttonPanel.add(saveButton);
         buttonPanel.add(cancelButton);
+        JPanel southPanel = new JPanel(new BorderLayout());
+        southPanel.add(validationLabel, BorderLayout.NORTH);
+        southPanel.add(buttonPanel, BorderLayout.CENTER);
 
         // Layout della finestra
         frame.setLayout(new BorderLayout());
         frame.add(scrollPane, BorderLayout.CENTER);
-        frame.add(buttonPanel, BorderLayout.SOUTH);
+        frame.add(southPanel, BorderLayout.SOUTH);
 
         // Listener per il pulsante Salva
         saveButton.addActionListener(e -> {
             String newConfig = textArea.getText();
 
+            // Con errori smbd non ripartirebbe: il file e il servizio non vengono toccati
+            validationTimer.stop();
+            List<SmbConfValidator.Issue> issues = validator.validate(newConfig, externalSections);
+            showValidation(validationLabel, issues);
+            if (SmbConfValidator.hasErrors(issues)) {
+                showErrorDialog("La configurazione contiene errori e non è stata salvata:\n"
+                        + formatIssues(issues, SmbConfValidator.Severity.ERROR, 10));
+                return;
+            }
+
             try {
                 // Aggiorna la configurazione interna con il nuovo testo
                 sambaManager.readConfigFromText(newConfig);
 
                 // Salva il nuovo contenuto nel file
-                sambaManager.updateConfig();
+                JobGraph.Lease lease = JobGraph.lock(EnumSet.of(JobGraph.Resource.SMB_CONF));
+                try {
+                    sambaManager.updateConfig();
+                } finally {
+                    lease.release();
+                }
 
-                //Riavvio Samba
-                sambaManager.stopSambaService();
-                sambaManager.startSambaService();
+                // Ricarica o riavvia Samba solo se le modifiche lo richiedono
+                String applied = applyServiceChanges("editor smb.conf");
 
                 // Mostra una notifica
-                showInfoDialog("Configurazione Samba aggiornata con successo, servizio riavviato.");
+                showInfoDialog("Configurazione Samba aggiornata con successo (" + applied + ").");
                 frame.dispose();
-            } catch (IOException | InterruptedException ex) {
+            } catch (IOException ex) {
                 showErrorDialog("Errore durante l'aggiornamento della configurazione: " + ex.getMessage());
             }
         });
@@ -1457,6 +1651,51 @@ public class MainManager {
         frame.setVisible(true);
     }
 
+    // Riepilogo del controllo di smb.conf sotto l'editor; l'elenco completo è nel tooltip
+    private void showValidation(JLabel label, List<SmbConfValidator.Issue> issues) {
+        if (issues.isEmpty()) {
+            label.setText("Nessun problema rilevato");
+            label.setForeground(new Color(0, 128, 0));
+            label.setToolTipText(null);
+            return;
+        }
+        int errors = 0;
+        SmbConfValidator.Issue first = issues.get(0);
+        for (SmbConfValidator.Issue issue : issues) {
+            if (issue.getSeverity() == SmbConfValidator.Severity.ERROR) {
+                if (errors == 0) {
+                    first = issue; // In evidenza il primo errore, se ce n'è uno
+                }
+                errors++;
+            }
+        }
+        label.setText(errors + " errori, " + (issues.size() - errors) + " avvisi - " + first);
+        label.setForeground(errors > 0 ? Color.RED : new Color(180, 110, 0));
+        label.setToolTipText("<html>" + formatIssues(issues, null, 30).replace("&", "&amp;").replace("<", "&lt;")
+                .replace("\n", "<br>") + "</html>");
+    }
+
+    // Elenco delle segnalazioni del livello indicato (tutte se null), una per riga
+    private String formatIssues(List<SmbConfValidator.Issue> issues, SmbConfValidator.Severity severity, int max) {
+        StringBuilder text = new StringBuilder();
+        int shown = 0;
+        for (SmbConfValidator.Issue issue : issues) {
+            if (severity != null && issue.getSeverity() != severity) {
+                continue;
+            }
+            if (shown > 0) {
+                text.append('\n');
+            }
+            if (shown == max) {
+                text.append("...");
+                break;
+            }
+            text.append(issue);
+            shown++;
+        }
+        return text.toString();
+    }
+
     public void handleFtpConfigButton() {
         // Crea una finestra per la modifica della configurazione FTP
         JFrame frame = new JFrame("Modifica Configurazione FTP");
@@ -1495,14 +1734,13 @@ public class MainManager {
                 // Salva il nuovo contenuto nel file
                 ftpManager.updateConfig();
 
-                //Riavvia il Servizio
-                ftpManager.stopFtpService();
-                ftpManager.startFtpService();
+                // Ricarica o riavvia il servizio solo se le modifiche lo richiedono
+                String applied = applyServiceChanges("editor vsftpd.conf");
 
                 // Mostra una notifica
-                showInfoDialog("Configurazione FTP aggiornata con successo, servizio riavviato.");
+                showInfoDialog("Configurazione FTP aggiornata con successo (" + applied + ").");
                 frame.dispose();
-            } catch (IOException | InterruptedException ex) {
+            } catch (IOException ex) {
                 showErrorDialog("Errore durante l'aggiornamento della configurazione: " + ex.getMessage());
             }
         });
@@ -0,0 +1,23 @@
+package org.antonio;
+
+import java.io.IOException;
+
+// Esecuzione dei bind mount delle condivisioni FTP. Con JDK 22 o successivi (jar multi-release)
+// le chiamate mount(2) e umount2(2) vengono fatte direttamente tramite java.lang.foreign, senza
+// avviare un processo per condivisione; altrimenti si usano i comandi mount e umount.
+public interface MountBackend {
+
+    void bind(String source, String target) throws IOException;
+
+    void unmount(String target) throws IOException;
+
+    String getName();
+
+    // Con -Dsambaftp.mount.backend=process si usano sempre i comandi esterni
+    static MountBackend select() {
+        if (!"process".equalsIgnoreCase(System.getProperty("sambaftp.mount.backend", "")) && NativeMountBackend.isAvailable()) {
+            return new NativeMountBackend();
+        }
+        return new ProcessMountBackend();
+    }
+}
@@ -0,0 +1,235 @@
+package org.antonio;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+// Fotografia immutabile di /proc/self/mountinfo, indicizzata per punto di mount esatto. Le query
+// di FtpManager usano una sola fotografia per operazione invece di rileggere il file a ogni
+// percorso, e il confronto è sul punto di mount intero: /home/a/data non corrisponde più a
+// /home/a/data2. Il testo viene rianalizzato solo quando il contenuto del file cambia.
+public final class MountTable {
+    private static final Path MOUNTINFO = Paths.get("/proc/self/mountinfo");
+
+    // Ultima fotografia letta, riusata finché il file non cambia
+    private static MountTable cached;
+
+    // Una riga di mountinfo (vedi proc(5)):
+    // 36 35 98:0 /mnt1 /mnt2 rw,noatime master:1 - ext3 /dev/root rw,errors=continue
+    public static final class Entry {
+        private final int mountId;
+        private final int parentId;
+        private final String device;       // major:minor
+        private final String root;         // Directory del filesystem montata in questo punto
+        private final String mountPoint;
+        private final String mountOptions; // Opzioni del singolo mount
+        private final List<String> optionalFields;
+        private final String fsType;
+        private final String source;
+        private final String superOptions; // Opzioni del superblocco
+
+        private Entry(int mountId, int parentId, String device, String root, String mountPoint, String mountOptions,
+                      List<String> optionalFields, String fsType, String source, String superOptions) {
+            this.mountId = mountId;
+            this.parentId = parentId;
+            this.device = device;
+            this.root = root;
+            this.mountPoint = mountPoint;
+            this.mountOptions = mountOptions;
+            this.optionalFields = optionalFields;
+            this.fsType = fsType;
+            this.source = source;
+            this.superOptions = superOptions;
+        }
+
+        public int getMountId() {
+            return mountId;
+        }
+
+        public int getParentId() {
+            return parentId;
+        }
+
+        public String getDevice() {
+            return device;
+        }
+
+        public String getRoot() {
+            return root;
+        }
+
+        public String getMountPoint() {
+            return mountPoint;
+        }
+
+        public String getMountOptions() {
+            return mountOptions;
+        }
+
+        public List<String> getOptionalFields() {
+            return optionalFields;
+        }
+
+        public String getFsType() {
+            return fsType;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public String getSuperOptions() {
+            return superOptions;
+        }
+
+        public boolean hasOption(String option) {
+            return Arrays.asList(mountOptions.split(",")).contains(option);
+        }
+
+        @Override
+        public String toString() {
+            return mountPoint + " (" + fsType + " " + source + ", root " + root + ", " + mountOptions + ")";
+        }
+    }
+
+    private final String text;
+    private final List<Entry> entries;
+    // Punto di mount -> ultimo mount in quel punto (quello visibile se ce ne sono più di uno sovrapposti)
+    private final HashMap<String, Entry> byMountPoint;
+
+    private MountTable(String text, List<Entry> entries) {
+        this.text = text;
+        this.entries = Collections.unmodifiableList(entries);
+        this.byMountPoint = new HashMap<>();
+        for (Entry entry : entries) {
+            byMountPoint.put(entry.mountPoint, entry);
+        }
+    }
+
+    // Fotografia corrente della tabella dei mount di questo processo
+    public static MountTable current() throws IOException {
+        String text = new String(Files.readAllBytes(MOUNTINFO), StandardCharsets.UTF_8);
+        synchronized (MountTable.class) {
+            if (cached == null || !cached.text.equals(text)) {
+                cached = parse(text);
+            }
+            return cached;
+        }
+    }
+
+    public static MountTable parse(String text) {
+        ArrayList<Entry> entries = new ArrayList<>();
+        for (String line : text.split("\n")) {
+            Entry entry = parseLine(line);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        return new MountTable(text, entries);
+    }
+
+    // null per righe non riconosciute, che vengono ignorate
+    private static Entry parseLine(String line) {
+        String[] fields = line.trim().split(" ");
+        int separator = Arrays.asList(fields).indexOf("-");
+        if (separator < 6 || fields.length < separator + 3) {
+            return null;
+        }
+        try {
+            return new Entry(
+                    Integer.parseInt(fields[0]),
+                    Integer.parseInt(fields[1]),
+                    fields[2],
+                    unescape(fields[3]),
+                    unescape(fields[4]),
+                    fields[5],
+                    Collections.unmodifiableList(Arrays.asList(Arrays.copyOfRange(fields, 6, separator))),
+                    unescape(fields[separator + 1]),
+                    unescape(fields[separator + 2]),
+                    fields.length > separator + 3 ? fields[separator + 3] : ""
+            );
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Il kernel codifica spazio, tab, a capo e backslash come \040, \011, \012 e \134
+    public static String unescape(String field) {
+        if (field.indexOf('\\') < 0) {
+            return field;
+        }
+        StringBuilder builder = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '\\' && isOctal(field, i + 1)) {
+                builder.append((char) Integer.parseInt(field.substring(i + 1, i + 4), 8));
+                i += 3;
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static boolean isOctal(String field, int start) {
+        if (start + 3 > field.length()) {
+            return false;
+        }
+        for (int i = start; i < start + 3; i++) {
+            char c = field.charAt(i);
+            if (c < '0' || c > '7') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public Entry get(Path mountPoint) {
+        return byMountPoint.get(key(mountPoint));
+    }
+
+    public boolean isMountPoint(Path path) {
+        return byMountPoint.containsKey(key(path));
+    }
+
+    // Directory di origine di un bind mount, ricavata dal mount dello stesso dispositivo che contiene
+    // la sua root. Si preferisce il mount più vicino all'intero filesystem (root più corta), così un
+    // altro bind della stessa directory non viene scambiato per l'origine. null se non è possibile
+    // determinarla (es. il filesystem sorgente non è montato).
+    public String getBindSource(Path mountPoint) {
+        Entry bind = get(mountPoint);
+        if (bind == null) {
+            return null;
+        }
+        Entry best = null;
+        for (Entry entry : entries) {
+            if (entry == bind || !entry.device.equals(bind.device) || !isWithin(bind.root, entry.root)) {
+                continue;
+            }
+            if (best == null || entry.root.length() < best.root.length()
+                    || (entry.root.length() == best.root.length() && entry.mountId < best.mountId)) {
+                best = entry;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        String relative = best.root.equals("/") ? bind.root : bind.root.substring(best.root.length());
+        return Paths.get(best.mountPoint, relative).normalize().toString();
+    }
+
+    private static boolean isWithin(String path, String directory) {
+        return directory.equals("/") || path.equals(directory) || path.startsWith(directory + "/");
+    }
+
+    private static String key(Path path) {
+        return path.toAbsolutePath().normalize().toString();
+    }
+}
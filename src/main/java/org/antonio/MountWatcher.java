@@ -0,0 +1,180 @@
+package org.antonio;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Segue le modifiche alla tabella dei mount fatte dal kernel, anche da fuori dell'applicazione.
+// "findmnt --poll" resta in ascolto su /proc/self/mountinfo (poll() con POLLPRI) e stampa una riga
+// per ogni mount, umount, remount o spostamento: nessuna scansione periodica. Gli eventi vengono
+// consegnati tramite l'Executor indicato, es. SwingUtilities::invokeLater per aggiornare la GUI.
+// Non passa da CommandExecutor perché il processo resta attivo per tutta la vita dell'applicazione.
+public class MountWatcher {
+    private static final long RESTART_DELAY_MILLIS = 1_000; // Attesa prima di rilanciare findmnt terminato
+    private static final Pattern PAIR = Pattern.compile("([A-Z-]+)=\"((?:[^\"\\\\]|\\\\.)*)\"");
+    private static final Pattern HEX_ESCAPE = Pattern.compile("\\\\x([0-9a-fA-F]{2})");
+
+    public enum Action {MOUNT, UMOUNT, REMOUNT, MOVE}
+
+    public static final class Event {
+        private final Action action;
+        private final Path target;
+        private final Path oldTarget; // Solo per MOVE: punto di mount precedente
+
+        private Event(Action action, Path target, Path oldTarget) {
+            this.action = action;
+            this.target = target;
+            this.oldTarget = oldTarget;
+        }
+
+        public Action getAction() {
+            return action;
+        }
+
+        public Path getTarget() {
+            return target;
+        }
+
+        public Path getOldTarget() {
+            return oldTarget;
+        }
+
+        @Override
+        public String toString() {
+            return action + " " + (action == Action.MOVE ? oldTarget + " -> " : "") + target;
+        }
+    }
+
+    public interface Listener {
+        void mountChanged(Event event);
+
+        // findmnt non è disponibile o non può essere avviato: gli eventi non arriveranno
+        void watcherFailed(String message);
+    }
+
+    private final Executor delivery;
+    private final Listener listener;
+    private volatile boolean running;
+    private volatile Process process;
+    private Thread thread;
+
+    public MountWatcher(Executor delivery, Listener listener) {
+        this.delivery = delivery;
+        this.listener = listener;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::watch, "mount-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        Process current = process;
+        if (current != null) {
+            current.destroy();
+        }
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void watch() {
+        List<String> command = Arrays.asList("findmnt", "--poll", "--pairs", "--output", "ACTION,TARGET,OLD-TARGET");
+        while (running) {
+            try {
+                process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+            } catch (IOException e) {
+                running = false;
+                delivery.execute(() -> listener.watcherFailed("Impossibile avviare findmnt: " + e.getMessage()));
+                return;
+            }
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    Event event = parse(line);
+                    if (event != null) {
+                        delivery.execute(() -> listener.mountChanged(event));
+                    }
+                }
+            } catch (IOException e) {
+                // Flusso chiuso da stop() o dalla terminazione di findmnt
+            }
+            process.destroy();
+            if (!running) {
+                return;
+            }
+            // findmnt è terminato da solo: si rilancia senza consumare CPU in un ciclo stretto
+            try {
+                Thread.sleep(RESTART_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    // ACTION="move" TARGET="/home/a/nuovo" OLD-TARGET="/home/a/vecchio"; null per righe non riconosciute
+    static Event parse(String line) {
+        HashMap<String, String> fields = new HashMap<>();
+        Matcher matcher = PAIR.matcher(line);
+        while (matcher.find()) {
+            fields.put(matcher.group(1), unescape(matcher.group(2)));
+        }
+        String action = fields.get("ACTION");
+        String target = fields.get("TARGET");
+        if (action == null || target == null || target.isEmpty()) {
+            return null;
+        }
+        Action parsed;
+        try {
+            parsed = Action.valueOf(action.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        String oldTarget = fields.get("OLD-TARGET");
+        return new Event(parsed, Paths.get(target),
+                parsed == Action.MOVE && oldTarget != null && !oldTarget.isEmpty() ? Paths.get(oldTarget) : null);
+    }
+
+    // findmnt codifica i caratteri non stampabili, le virgolette e ogni byte dei caratteri non ASCII
+    // come \xHH: i byte vengono raccolti e decodificati insieme come UTF-8
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(value.length());
+        int i = 0;
+        while (i < value.length()) {
+            Matcher matcher = HEX_ESCAPE.matcher(value).region(i, value.length());
+            if (matcher.lookingAt()) {
+                bytes.write(Integer.parseInt(matcher.group(1), 16));
+                i = matcher.end();
+            } else {
+                int next = value.indexOf('\\', i + 1);
+                int end = next < 0 ? value.length() : next;
+                byte[] text = value.substring(i, end).getBytes(StandardCharsets.UTF_8);
+                bytes.write(text, 0, text.length);
+                i = end;
+            }
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,28 @@
+package org.antonio;
+
+import java.io.IOException;
+
+// Versione per le JVM precedenti alla 22, dove java.lang.foreign non è definitivo: il backend nativo
+// non è disponibile e MountBackend.select() ripiega sui comandi mount e umount. L'implementazione
+// vera è in src/main/java22 e finisce in META-INF/versions/22 del jar (profilo "jdk22" del pom).
+public final class NativeMountBackend implements MountBackend {
+
+    public static boolean isAvailable() {
+        return false;
+    }
+
+    @Override
+    public void bind(String source, String target) throws IOException {
+        throw new IOException("Backend di mount nativo non disponibile su questa JVM");
+    }
+
+    @Override
+    public void unmount(String target) throws IOException {
+        throw new IOException("Backend di mount nativo non disponibile su questa JVM");
+    }
+
+    @Override
+    public String getName() {
+        return "non disponibile";
+    }
+}
@@ -0,0 +1,185 @@
+package org.antonio;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+
+// Lettore in sola lettura di passdb.tdb (backend "tdbsam" di Samba): elenca gli account senza
+// avviare pdbedit. Il file viene mappato in memoria e riletto solo quando data di modifica o
+// dimensione cambiano. Non prende i lock di TDB: ogni incoerenza (scrittura in corso, formato
+// inatteso) produce una IOException e il chiamante ripiega su pdbedit.
+public class PassdbTdbReader {
+    private static final byte[] TDB_MAGIC_FOOD = "TDB file\n".getBytes(StandardCharsets.US_ASCII);
+    private static final int TDB_VERSION = 0x26011967 + 6;
+    private static final int TDB_MAGIC = 0x26011999; // Record valido (quelli liberi o morti hanno altri valori)
+    private static final int HEADER_SIZE = 168; // struct tdb_header
+    private static final int VERSION_OFFSET = 32;
+    private static final int HASH_SIZE_OFFSET = 36;
+    private static final int RECORD_HEADER_SIZE = 24; // next, rec_len, key_len, data_len, full_hash, magic
+    private static final String USER_PREFIX = "USER_";
+    private static final int PACKED_TIMES = 7; // Campi "d" iniziali del formato V4 prima del nome utente
+
+    private final Path file;
+    private FileTime cachedTime; // Stato del file all'ultima lettura
+    private long cachedSize = -1;
+    private List<String> cachedUsers;
+
+    public PassdbTdbReader(Path file) {
+        this.file = file;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    // Nomi degli account presenti, riletti dal file solo se è cambiato dall'ultima volta
+    public synchronized List<String> readUsers() throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        if (cachedUsers != null && attributes.lastModifiedTime().equals(cachedTime) && attributes.size() == cachedSize) {
+            return cachedUsers;
+        }
+        List<String> users = Collections.unmodifiableList(parse());
+        cachedUsers = users;
+        cachedTime = attributes.lastModifiedTime();
+        cachedSize = attributes.size();
+        return users;
+    }
+
+    // Vero se il file è cambiato dall'ultima lettura (o non è mai stato letto)
+    public synchronized boolean isStale() {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return cachedUsers == null || !attributes.lastModifiedTime().equals(cachedTime) || attributes.size() != cachedSize;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    // Registra come contenuto attuale del file un elenco già noto (es. dopo una modifica fatta da
+    // noi con smbpasswd), così la prossima lettura non rianalizza il file per un cambiamento atteso
+    public synchronized void acknowledge(Collection<String> users) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            cachedUsers = Collections.unmodifiableList(new ArrayList<>(users));
+            cachedTime = attributes.lastModifiedTime();
+            cachedSize = attributes.size();
+        } catch (IOException e) {
+            cachedUsers = null; // La prossima lettura rileggerà il file
+        }
+    }
+
+    private ArrayList<String> parse() throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Dimensione non valida per passdb.tdb: " + size);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+
+        for (int i = 0; i < TDB_MAGIC_FOOD.length; i++) {
+            if (buffer.get(i) != TDB_MAGIC_FOOD[i]) {
+                throw new IOException("Il file non è un database TDB: " + file);
+            }
+        }
+        // TDB scrive nell'ordine dei byte della macchina che ha creato il file
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(VERSION_OFFSET) != TDB_VERSION) {
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            if (buffer.getInt(VERSION_OFFSET) != TDB_VERSION) {
+                throw new IOException("Versione TDB non supportata: " + file);
+            }
+        }
+
+        int limit = buffer.capacity();
+        long hashSize = Integer.toUnsignedLong(buffer.getInt(HASH_SIZE_OFFSET));
+        if (hashSize == 0 || HEADER_SIZE + 4 * (hashSize + 1) > limit) {
+            throw new IOException("Tabella hash non valida in " + file);
+        }
+
+        ArrayList<String> users = new ArrayList<>();
+        long maxRecords = limit / RECORD_HEADER_SIZE; // Protezione da catene circolari
+        long visited = 0;
+        // La testa della lista libera occupa la prima posizione, poi una per ogni bucket
+        for (long bucket = 0; bucket < hashSize; bucket++) {
+            long offset = Integer.toUnsignedLong(buffer.getInt((int) (HEADER_SIZE + 4 * (bucket + 1))));
+            while (offset != 0) {
+                if (offset < HEADER_SIZE || offset + RECORD_HEADER_SIZE > limit || ++visited > maxRecords) {
+                    throw new IOException("Catena di record non valida in " + file);
+                }
+                int record = (int) offset;
+                long next = Integer.toUnsignedLong(buffer.getInt(record));
+                long keyLength = Integer.toUnsignedLong(buffer.getInt(record + 8));
+                long dataLength = Integer.toUnsignedLong(buffer.getInt(record + 12));
+                int magic = buffer.getInt(record + 20);
+                long keyStart = offset + RECORD_HEADER_SIZE;
+                if (keyStart + keyLength + dataLength > limit) {
+                    throw new IOException("Record oltre la fine del file in " + file);
+                }
+                if (magic == TDB_MAGIC) {
+                    String user = accountName(buffer, (int) keyStart, (int) keyLength, (int) dataLength);
+                    if (user != null) {
+                        users.add(user);
+                    }
+                }
+                offset = next;
+            }
+        }
+        Collections.sort(users);
+        return users;
+    }
+
+    // Le chiavi degli account sono "USER_<nome in minuscolo>\0"; il nome con le maiuscole originali
+    // è il primo campo stringa dei dati, dopo i tempi dell'account
+    private static String accountName(MappedByteBuffer buffer, int keyStart, int keyLength, int dataLength) {
+        int length = keyLength;
+        if (length > 0 && buffer.get(keyStart + length - 1) == 0) {
+            length--;
+        }
+        if (length <= USER_PREFIX.length()) {
+            return null;
+        }
+        byte[] key = new byte[length];
+        for (int i = 0; i < length; i++) {
+            key[i] = buffer.get(keyStart + i);
+        }
+        String keyText = new String(key, StandardCharsets.UTF_8);
+        if (!keyText.startsWith(USER_PREFIX)) {
+            return null;
+        }
+        String name = keyText.substring(USER_PREFIX.length());
+
+        // I campi dei dati sono sempre little-endian (tdb_pack), indipendentemente dal file
+        int nameField = keyStart + keyLength + 4 * PACKED_TIMES;
+        if (dataLength >= 4 * PACKED_TIMES + 4) {
+            int nameLength = littleEndianInt(buffer, nameField);
+            if (nameLength > 1 && 4L * PACKED_TIMES + 4 + nameLength <= dataLength) {
+                byte[] packed = new byte[nameLength - 1]; // Il terminatore non fa parte del nome
+                for (int i = 0; i < packed.length; i++) {
+                    packed[i] = buffer.get(nameField + 4 + i);
+                }
+                String packedName = new String(packed, StandardCharsets.UTF_8);
+                if (packedName.equalsIgnoreCase(name)) {
+                    return packedName;
+                }
+            }
+        }
+        return name;
+    }
+
+    private static int littleEndianInt(MappedByteBuffer buffer, int position) {
+        return (buffer.get(position) & 0xff)
+                | (buffer.get(position + 1) & 0xff) << 8
+                | (buffer.get(position + 2) & 0xff) << 16
+                | (buffer.get(position + 3) & 0xff) << 24;
+    }
+}
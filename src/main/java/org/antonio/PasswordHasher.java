@@ -0,0 +1,259 @@
+package org.antonio;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Calcolo degli hash delle password dentro la JVM, in parallelo su tutti i core:
+// - hash SHA-512 compatibile con crypt(3) ("$6$sale$..."), da passare a "chpasswd -e"
+// - hash NT di Samba (MD4 della password in UTF-16LE), da importare con pdbedit
+// In questo modo chpasswd e pdbedit non devono più calcolare gli hash un utente alla volta.
+public final class PasswordHasher {
+    private static final String CRYPT_ALPHABET = "./0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+    private static final int SALT_LENGTH = 16;
+    private static final int SHA512_ROUNDS = 5000; // Valore predefinito di crypt(3), senza "rounds=" nell'hash
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    // Ordine dei byte nella codifica finale di SHA-512 crypt (gruppi di tre byte)
+    private static final int[][] SHA512_PERMUTATION = {
+            {0, 21, 42}, {22, 43, 1}, {44, 2, 23}, {3, 24, 45}, {25, 46, 4}, {47, 5, 26}, {6, 27, 48},
+            {28, 49, 7}, {50, 8, 29}, {9, 30, 51}, {31, 52, 10}, {53, 11, 32}, {12, 33, 54}, {34, 55, 13},
+            {56, 14, 35}, {15, 36, 57}, {37, 58, 16}, {59, 17, 38}, {18, 39, 60}, {40, 61, 19}, {62, 20, 41}
+    };
+
+    private static ExecutorService pool; // Creato al primo utilizzo
+
+    private PasswordHasher() {
+    }
+
+    // Hash per chpasswd -e e per Samba, calcolati insieme per ogni utente
+    public static final class Hashes {
+        private final String cryptHash;
+        private final String ntHash;
+
+        Hashes(String cryptHash, String ntHash) {
+            this.cryptHash = cryptHash;
+            this.ntHash = ntHash;
+        }
+
+        public String getCryptHash() {
+            return cryptHash;
+        }
+
+        public String getNtHash() {
+            return ntHash;
+        }
+    }
+
+    // Calcola in parallelo gli hash di tutte le password (utente -> password), mantenendo l'ordine
+    public static LinkedHashMap<String, Hashes> hashAll(Map<String, String> passwords) throws InterruptedException {
+        LinkedHashMap<String, Hashes> hashes = new LinkedHashMap<>();
+        if (passwords.size() == 1) {
+            // Un solo utente: il pool non porterebbe alcun vantaggio
+            for (Map.Entry<String, String> entry : passwords.entrySet()) {
+                hashes.put(entry.getKey(), hash(entry.getValue()));
+            }
+            return hashes;
+        }
+
+        ArrayList<String> usernames = new ArrayList<>(passwords.keySet());
+        ArrayList<Callable<Hashes>> tasks = new ArrayList<>(usernames.size());
+        for (String username : usernames) {
+            String password = passwords.get(username);
+            tasks.add(() -> hash(password));
+        }
+        List<Future<Hashes>> results = pool().invokeAll(tasks);
+
+        for (int i = 0; i < usernames.size(); i++) {
+            try {
+                hashes.put(usernames.get(i), results.get(i).get());
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Errore durante il calcolo dell'hash per " + usernames.get(i), e.getCause());
+            }
+        }
+        return hashes;
+    }
+
+    public static Hashes hash(String password) {
+        return new Hashes(sha512Crypt(password), ntHash(password));
+    }
+
+    // Hash SHA-512 nel formato di crypt(3) con un sale casuale
+    public static String sha512Crypt(String password) {
+        StringBuilder salt = new StringBuilder(SALT_LENGTH);
+        for (int i = 0; i < SALT_LENGTH; i++) {
+            salt.append(CRYPT_ALPHABET.charAt(RANDOM.nextInt(CRYPT_ALPHABET.length())));
+        }
+        return sha512Crypt(password, salt.toString());
+    }
+
+    // Algoritmo "SHA-crypt" di U. Drepper con il numero di round predefinito
+    public static String sha512Crypt(String password, String salt) {
+        byte[] key = password.getBytes(StandardCharsets.UTF_8);
+        byte[] saltBytes = salt.substring(0, Math.min(salt.length(), SALT_LENGTH)).getBytes(StandardCharsets.UTF_8);
+        MessageDigest digest = sha512();
+
+        // B = H(password + sale + password)
+        digest.update(key);
+        digest.update(saltBytes);
+        digest.update(key);
+        byte[] alternate = digest.digest();
+
+        // A = H(password + sale + B ripetuto per la lunghezza della password + bit della lunghezza)
+        digest.update(key);
+        digest.update(saltBytes);
+        updateRepeated(digest, alternate, key.length);
+        for (int length = key.length; length > 0; length >>= 1) {
+            if ((length & 1) != 0) {
+                digest.update(alternate);
+            } else {
+                digest.update(key);
+            }
+        }
+        byte[] intermediate = digest.digest();
+
+        // P = H(password ripetuta) troncato alla lunghezza della password
+        for (int i = 0; i < key.length; i++) {
+            digest.update(key);
+        }
+        byte[] pBytes = repeatToLength(digest.digest(), key.length);
+
+        // S = H(sale ripetuto 16 + A[0] volte) troncato alla lunghezza del sale
+        for (int i = 0; i < 16 + (intermediate[0] & 0xff); i++) {
+            digest.update(saltBytes);
+        }
+        byte[] sBytes = repeatToLength(digest.digest(), saltBytes.length);
+
+        for (int round = 0; round < SHA512_ROUNDS; round++) {
+            digest.update((round & 1) != 0 ? pBytes : intermediate);
+            if (round % 3 != 0) {
+                digest.update(sBytes);
+            }
+            if (round % 7 != 0) {
+                digest.update(pBytes);
+            }
+            digest.update((round & 1) != 0 ? intermediate : pBytes);
+            intermediate = digest.digest();
+        }
+
+        StringBuilder result = new StringBuilder("$6$").append(new String(saltBytes, StandardCharsets.UTF_8)).append('$');
+        for (int[] group : SHA512_PERMUTATION) {
+            encode64(result, intermediate[group[0]], intermediate[group[1]], intermediate[group[2]], 4);
+        }
+        encode64(result, (byte) 0, (byte) 0, intermediate[63], 2);
+        return result.toString();
+    }
+
+    // Hash NT di Samba: MD4 della password codificata in UTF-16LE, in esadecimale maiuscolo
+    public static String ntHash(String password) {
+        byte[] hash = md4(password.getBytes(StandardCharsets.UTF_16LE));
+        StringBuilder hex = new StringBuilder(32);
+        for (byte b : hash) {
+            hex.append(Character.toUpperCase(Character.forDigit((b >> 4) & 0xf, 16)));
+            hex.append(Character.toUpperCase(Character.forDigit(b & 0xf, 16)));
+        }
+        return hex.toString();
+    }
+
+    private static synchronized ExecutorService pool() {
+        if (pool == null) {
+            int threads = Runtime.getRuntime().availableProcessors();
+            pool = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "password-hasher");
+                thread.setDaemon(true); // Non deve impedire la chiusura dell'applicazione
+                return thread;
+            });
+        }
+        return pool;
+    }
+
+    private static MessageDigest sha512() {
+        try {
+            return MessageDigest.getInstance("SHA-512");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-512 non disponibile", e);
+        }
+    }
+
+    private static void updateRepeated(MessageDigest digest, byte[] block, int length) {
+        int remaining = length;
+        while (remaining > block.length) {
+            digest.update(block);
+            remaining -= block.length;
+        }
+        digest.update(block, 0, remaining);
+    }
+
+    private static byte[] repeatToLength(byte[] block, int length) {
+        byte[] result = new byte[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = block[i % block.length];
+        }
+        return result;
+    }
+
+    private static void encode64(StringBuilder out, byte b2, byte b1, byte b0, int chars) {
+        int value = ((b2 & 0xff) << 16) | ((b1 & 0xff) << 8) | (b0 & 0xff);
+        for (int i = 0; i < chars; i++) {
+            out.append(CRYPT_ALPHABET.charAt(value & 0x3f));
+            value >>>= 6;
+        }
+    }
+
+    // MD4 (RFC 1320): non è fornito dai provider standard della JVM
+    static byte[] md4(byte[] message) {
+        int paddedLength = ((message.length + 8) / 64 + 1) * 64;
+        byte[] padded = Arrays.copyOf(message, paddedLength);
+        padded[message.length] = (byte) 0x80;
+        long bits = (long) message.length * 8;
+        for (int i = 0; i < 8; i++) {
+            padded[paddedLength - 8 + i] = (byte) (bits >>> (8 * i));
+        }
+
+        int a = 0x67452301, b = 0xefcdab89, c = 0x98badcfe, d = 0x10325476;
+        int[] x = new int[16];
+        for (int block = 0; block < paddedLength; block += 64) {
+            for (int i = 0; i < 16; i++) {
+                int p = block + i * 4;
+                x[i] = (padded[p] & 0xff) | (padded[p + 1] & 0xff) << 8 | (padded[p + 2] & 0xff) << 16 | (padded[p + 3] & 0xff) << 24;
+            }
+            int aa = a, bb = b, cc = c, dd = d;
+
+            for (int i : new int[]{0, 4, 8, 12}) {
+                a = Integer.rotateLeft(a + ((b & c) | (~b & d)) + x[i], 3);
+                d = Integer.rotateLeft(d + ((a & b) | (~a & c)) + x[i + 1], 7);
+                c = Integer.rotateLeft(c + ((d & a) | (~d & b)) + x[i + 2], 11);
+                b = Integer.rotateLeft(b + ((c & d) | (~c & a)) + x[i + 3], 19);
+            }
+            for (int i : new int[]{0, 1, 2, 3}) {
+                a = Integer.rotateLeft(a + ((b & c) | (b & d) | (c & d)) + x[i] + 0x5a827999, 3);
+                d = Integer.rotateLeft(d + ((a & b) | (a & c) | (b & c)) + x[i + 4] + 0x5a827999, 5);
+                c = Integer.rotateLeft(c + ((d & a) | (d & b) | (a & b)) + x[i + 8] + 0x5a827999, 9);
+                b = Integer.rotateLeft(b + ((c & d) | (c & a) | (d & a)) + x[i + 12] + 0x5a827999, 13);
+            }
+            for (int i : new int[]{0, 2, 1, 3}) {
+                a = Integer.rotateLeft(a + (b ^ c ^ d) + x[i] + 0x6ed9eba1, 3);
+                d = Integer.rotateLeft(d + (a ^ b ^ c) + x[i + 8] + 0x6ed9eba1, 9);
+                c = Integer.rotateLeft(c + (d ^ a ^ b) + x[i + 4] + 0x6ed9eba1, 11);
+                b = Integer.rotateLeft(b + (c ^ d ^ a) + x[i + 12] + 0x6ed9eba1, 15);
+            }
+
+            a += aa;
+            b += bb;
+            c += cc;
+            d += dd;
+        }
+
+        byte[] result = new byte[16];
+        int[] words = {a, b, c, d};
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                result[i * 4 + j] = (byte) (words[i] >>> (8 * j));
+            }
+        }
+        return result;
+    }
+}
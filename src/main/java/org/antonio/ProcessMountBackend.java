@@ -0,0 +1,25 @@
+package org.antonio;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+// Bind mount tramite i comandi mount e umount, eseguiti da CommandExecutor
+public final class ProcessMountBackend implements MountBackend {
+
+    @Override
+    public void bind(String source, String target) throws IOException {
+        CommandExecutor.getDefault().runChecked(Arrays.asList("mount", "--bind", source, target),
+                "Errore nel creare il bind mount per " + target);
+    }
+
+    @Override
+    public void unmount(String target) throws IOException {
+        CommandExecutor.getDefault().runChecked(Arrays.asList("umount", target),
+                "Errore nello smontare il bind mount per " + target);
+    }
+
+    @Override
+    public String getName() {
+        return "processi mount/umount";
+    }
+}
@@ -1,23 +1,63 @@
 package org.antonio;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class SambaManager {
+    private static final long SERVICE_TIMEOUT_MILLIS = 120_000; // systemd attende fino a 90 s prima di forzare l'arresto
+    private static final String DEFAULT_SMB_PORTS = "445 139";
+    // Posizioni abituali di passdb.tdb quando "passdb backend" non indica un percorso
+    private static final String[] PASSDB_LOCATIONS = {
+            "/var/lib/samba/private/passdb.tdb", "/var/lib/samba/passdb.tdb", "/etc/samba/passdb.tdb"
+    };
+
     private String configPath;
     private ArrayList<String[]> globalSettings;
     private ArrayList<String[]> homeSettings;
-    private ArrayList<SmbCondBean> shares;
-    private ArrayList<String> sambaUsers; // Lista degli utenti Samba
+    private LinkedHashMap<String, SmbCondBean> shares; // Nome in minuscolo -> condivisione, nell'ordine del file
+    private HashMap<String, LinkedHashSet<SmbCondBean>> sharesByUser; // Indice inverso utente -> condivisioni
+    private HashMap<String, LinkedHashSet<SmbCondBean>> sharesByGroup; // Indice inverso "@gruppo" -> condivisioni
+    private GroupIndex groupIndex; // Membri dei gruppi UNIX, per risolvere le voci "@gruppo"
+    private IdentityHashMap<SmbCondBean, ArrayList<String>> indexedUsers; // Utenti con cui ogni condivisione è indicizzata
+    private SmbConfDocument document; // Testo originale del file, usato per riscriverlo senza perdere commenti
+    private boolean globalDirty, homeDirty; // Sezioni [global] e [homes] modificate dall'ultimo caricamento
+    private boolean mainDirty; // Testo di smb.conf diverso da quello su disco (es. modificato dall'editor)
+    private Path includeDir; // Cartella dei file per condivisione (smb.conf.d accanto a smb.conf)
+    private ShareStore defaultStore; // Dove salvare le condivisioni nuove
+    private HashMap<String, Path> includeFiles; // Nome in minuscolo -> file incluso che contiene la condivisione
+    private LinkedHashMap<Path, SmbConfDocument> includeDocuments; // File inclusi, nell'ordine delle righe "include ="
+    private UsershareStore usershareStore; // Accesso alle usershare tramite "net usershare"
+    private HashMap<String, String> savedUsershares; // Nome in minuscolo -> nome delle usershare presenti su disco
+    private volatile Set<String> sambaUsers; // Utenti Samba: istantanea in sola lettura, sostituita a ogni modifica
+    private PassdbTdbReader passdbReader; // Lettura diretta di passdb.tdb, null se non disponibile
+    private HashMap<String, String> savedGlobals; // Parametro in minuscolo -> valore di [global] scritto su disco
+    private final ArrayList<ServiceChange> pendingChanges; // Modifiche scritte e non ancora applicate a smbd
+    private volatile long stoppedAtNanos; // Istante dell'ultimo arresto di smbd, 0 se non è stato fermato
     private boolean debugEnabled; // Flag per il debug
 
     public SambaManager(String configPath) throws IOException {
         this.configPath = configPath;
         this.globalSettings = new ArrayList<>();
         this.homeSettings = new ArrayList<>();
-        this.shares = new ArrayList<>();
-        this.sambaUsers = new ArrayList<>();
+        this.shares = new LinkedHashMap<>();
+        this.sharesByUser = new HashMap<>();
+        this.sharesByGroup = new HashMap<>();
+        this.groupIndex = new GroupIndex();
+        this.indexedUsers = new IdentityHashMap<>();
+        this.document = new SmbConfDocument();
+        this.includeDir = Paths.get(configPath).toAbsolutePath().normalize().resolveSibling("smb.conf.d");
+        this.defaultStore = ShareStore.SMB_CONF;
+        this.includeFiles = new HashMap<>();
+        this.includeDocuments = new LinkedHashMap<>();
+        this.usershareStore = new UsershareStore(groupIndex);
+        this.savedUsershares = new HashMap<>();
+        this.sambaUsers = Collections.emptySet();
+        this.savedGlobals = new HashMap<>();
+        this.pendingChanges = new ArrayList<>();
         this.debugEnabled = false; // Debug disabilitato di default
         if (!Files.exists(Paths.get(configPath))) {
             throw new FileNotFoundException("File di configurazione non trovato: " + configPath);
@@ -44,146 +84,332 @@ public class SambaManager {
         }
     }
 
+    // Sceglie dove salvare le condivisioni nuove: in smb.conf, in un file dedicato in smb.conf.d
+    // oppure come usershare.
+    // Le condivisioni già esistenti restano dove sono state lette.
+    public void setDefaultShareStore(ShareStore store) {
+        printDebug("Posizione predefinita delle nuove condivisioni: " + store);
+        this.defaultStore = store;
+    }
+
+    public ShareStore getDefaultShareStore() {
+        return defaultStore;
+    }
+
+    public Path getIncludeDir() {
+        return includeDir;
+    }
+
     public void loadConfig() throws IOException {
         printDebug("Caricamento configurazione Samba...");
-        try (BufferedReader reader = new BufferedReader(new FileReader(configPath))) {
-            globalSettings.clear();
-            homeSettings.clear();
-            shares.clear();
+        SmbConfDocument parsed;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(Paths.get(configPath)), StandardCharsets.UTF_8))) {
+            parsed = SmbConfParser.parse(reader, includeDir);
+        }
+        applyDocument(parsed, loadIncludes(parsed.getIncludes(), Collections.emptyMap()), loadUsershares());
+        mainDirty = false;
+        savedGlobals = settingsSnapshot(globalSettings);
+        savedUsershares.clear();
+        for (SmbCondBean share : shares.values()) {
+            if (share.getStore() == ShareStore.USERSHARE) {
+                savedUsershares.put(shareKey(share.getName()), share.getName());
+            }
+        }
+        printDebug("Configurazione Samba caricata con successo.");
+    }
 
-            SmbCondBean currentShare = null;
-            String currentSection = null;
-            String line;
+    // Legge in parallelo i file per condivisione; quelli già presenti in "loaded" vengono riusati
+    private LinkedHashMap<Path, SmbConfDocument> loadIncludes(List<Path> files, Map<Path, SmbConfDocument> loaded) throws IOException {
+        ConcurrentHashMap<Path, SmbConfDocument> parsed = new ConcurrentHashMap<>();
+        try {
+            files.parallelStream()
+                    .filter(file -> !loaded.containsKey(file))
+                    .distinct()
+                    .forEach(file -> {
+                        SmbConfDocument included = parseInclude(file);
+                        if (included != null) {
+                            parsed.put(file, included);
+                        }
+                    });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
 
-            while ((line = reader.readLine()) != null) {
-                line = line.trim();
-                if (line.isEmpty() || line.startsWith("#")) {
-                    continue;
-                }
+        LinkedHashMap<Path, SmbConfDocument> result = new LinkedHashMap<>();
+        for (Path file : files) {
+            SmbConfDocument included = loaded.containsKey(file) ? loaded.get(file) : parsed.get(file);
+            if (included == null) {
+                printDebug("File incluso non trovato, ignorato: " + file);
+            } else if (result.putIfAbsent(file, included) == null) {
+                printDebug("File incluso caricato: " + file);
+            }
+        }
+        return result;
+    }
 
-                if (line.startsWith("[")) {
-                    // Gestione cambio sezione
-                    String section = line.substring(1, line.length() - 1);
-                    currentSection = section.toLowerCase();
+    // Le usershare sono facoltative: se "net" non è disponibile o non sono abilitate si prosegue senza
+    private List<SmbCondBean> loadUsershares() {
+        try {
+            List<SmbCondBean> loaded = usershareStore.load();
+            printDebug("Usershare caricate: " + loaded.size());
+            return loaded;
+        } catch (IOException e) {
+            printDebug("Usershare non disponibili: " + e.getMessage());
+            return Collections.emptyList();
+        }
+    }
 
-                    if (currentShare != null) {
-                        shares.add(currentShare);
-                        printDebug("Condivisione aggiunta: " + currentShare.getName());
-                    }
+    private static SmbConfDocument parseInclude(Path file) {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return SmbConfParser.parse(reader);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-                    if (section.equalsIgnoreCase("global")) {
-                        currentShare = null;
-                        printDebug("Sezione Global individuata.");
-                    } else if (section.equalsIgnoreCase("homes")) {
-                        currentShare = null;
-                        printDebug("Sezione Homes individuata.");
-                    } else {
-                        currentShare = new SmbCondBean(section);
-                        printDebug("Inizio nuova condivisione: " + section);
+    // Adotta il modello prodotto dal parser come stato corrente: prima smb.conf, poi i file inclusi e
+    // infine le usershare (come in Samba, una condivisione di smb.conf prevale su una usershare omonima)
+    private void applyDocument(SmbConfDocument parsed, LinkedHashMap<Path, SmbConfDocument> includes, Collection<SmbCondBean> userShares) {
+        globalSettings.clear();
+        homeSettings.clear();
+        shares.clear();
+        includeFiles.clear();
+
+        for (SmbConfDocument.Section section : parsed.getSections()) {
+            switch (section.getKind()) {
+                case SmbConfDocument.KIND_GLOBAL:
+                    if (section.getEntries() != globalSettings) {
+                        globalSettings = section.getEntries();
+                        printDebug("Sezione Global individuata: " + globalSettings.size() + " impostazioni.");
                     }
-                } else {
-                    String[] keyValue = line.split("=", 2);
-                    if (keyValue.length == 2) {
-                        String key = keyValue[0].trim();
-                        String value = keyValue[1].trim();
-
-                        if ("global".equals(currentSection)) {
-                            globalSettings.add(new String[]{key, value});
-                            printDebug("Aggiunta impostazione Global: " + key + " = " + value);
-                        } else if ("homes".equals(currentSection)) {
-                            homeSettings.add(new String[]{key, value});
-                            printDebug("Aggiunta impostazione Home: " + key + " = " + value);
-                        } else if (currentShare != null) {
-                            if (key.equalsIgnoreCase("valid users")) {
-                                String[] users = value.split(",");
-                                for (String user : users) {
-                                    currentShare.addValidUser(user.trim());
-                                    printDebug("Aggiunto valid user: " + user.trim());
-                                }
-                            } else {
-                                currentShare.addProperty(key, value);
-                                printDebug("Aggiunta proprietà alla condivisione: " + key + " = " + value);
-                            }
-                        }
+                    break;
+                case SmbConfDocument.KIND_HOMES:
+                    if (section.getEntries() != homeSettings) {
+                        homeSettings = section.getEntries();
+                        printDebug("Sezione Homes individuata: " + homeSettings.size() + " impostazioni.");
                     }
+                    break;
+                default:
+                    adoptShare(section, ShareStore.SMB_CONF, null);
+                    break;
+            }
+        }
+        for (Map.Entry<Path, SmbConfDocument> entry : includes.entrySet()) {
+            for (SmbConfDocument.Section section : entry.getValue().getSections()) {
+                if (section.getKind() == SmbConfDocument.KIND_SHARE) {
+                    adoptShare(section, ShareStore.INCLUDE_FILE, entry.getKey());
+                } else {
+                    printDebug("Sezione [" + section.getName() + "] nel file incluso lasciata invariata: " + entry.getKey());
                 }
             }
+        }
+        for (SmbCondBean share : userShares) {
+            if (shares.putIfAbsent(shareKey(share.getName()), share) == null) {
+                share.setStore(ShareStore.USERSHARE);
+                printDebug("Usershare aggiunta: " + share.getName());
+            } else {
+                printDebug("Usershare nascosta da una condivisione omonima di smb.conf: " + share.getName());
+            }
+        }
+        document = parsed;
+        includeDocuments = includes;
+        globalDirty = false;
+        homeDirty = false;
+        resolveCopies();
+        rebuildShareIndex();
+        printDebug("Numero totale di condivisioni caricate: " + shares.size());
+    }
 
-            if (currentShare != null) {
-                shares.add(currentShare);
-                printDebug("Condivisione finale aggiunta: " + currentShare.getName());
+    private void adoptShare(SmbConfDocument.Section section, ShareStore store, Path file) {
+        String key = shareKey(section.getName());
+        if (shares.putIfAbsent(key, section.getShare()) == null) {
+            section.getShare().setStore(store);
+            if (file != null) {
+                includeFiles.put(key, file);
             }
+            printDebug("Condivisione aggiunta: " + section.getShare().getName());
         }
-        printDebug("Configurazione Samba caricata con successo.");
     }
 
     private void loadSambaUsers() throws IOException {
         printDebug("Caricamento utenti Samba...");
-        sambaUsers.clear();
-        ProcessBuilder pb = new ProcessBuilder("pdbedit", "-L");
-        String output = executeCommandWithOutput(pb, "Errore durante il caricamento degli utenti Samba");
+        PassdbTdbReader tdb = passdbReader();
+        if (tdb != null) {
+            try {
+                List<String> users = tdb.readUsers();
+                sambaUsers = Collections.unmodifiableSet(new LinkedHashSet<>(users));
+                printDebug("Utenti Samba letti da " + tdb.getFile() + ": " + users.size());
+                return;
+            } catch (IOException e) {
+                printDebug("Lettura di " + tdb.getFile() + " non riuscita, uso pdbedit: " + e.getMessage());
+            }
+        }
 
+        List<String> command = Arrays.asList("pdbedit", "-L");
+        String output = executeCommandWithOutput(command, "Errore durante il caricamento degli utenti Samba");
+
+        LinkedHashSet<String> users = new LinkedHashSet<>();
         try (BufferedReader reader = new BufferedReader(new StringReader(output))) {
             String line;
             while ((line = reader.readLine()) != null) {
                 String[] parts = line.split(":");
                 if (parts.length > 0) {
-                    sambaUsers.add(parts[0].trim());
+                    users.add(parts[0].trim());
                     printDebug("Utente Samba aggiunto: " + parts[0].trim());
                 }
             }
         }
+        sambaUsers = Collections.unmodifiableSet(users);
         printDebug("Utenti Samba caricati con successo.");
     }
 
+    // Aggiorna l'istantanea con una singola aggiunta o rimozione, senza rileggere l'elenco completo.
+    // Il lettore di passdb.tdb registra il nuovo stato del file, modificato da noi, come già noto.
+    private void applySambaUserDelta(Collection<String> usernames, boolean added) {
+        LinkedHashSet<String> users = new LinkedHashSet<>(sambaUsers);
+        if (added) {
+            users.addAll(usernames);
+        } else {
+            users.removeAll(usernames);
+        }
+        sambaUsers = Collections.unmodifiableSet(users);
+        if (passdbReader != null) {
+            passdbReader.acknowledge(users);
+        }
+    }
+
+    // Lettore di passdb.tdb secondo "passdb backend" in [global]; null se il backend non è tdbsam
+    // o il file non esiste (in quel caso gli utenti vengono letti con pdbedit)
+    private PassdbTdbReader passdbReader() {
+        String backend = "tdbsam"; // Predefinito di Samba
+        for (String[] setting : globalSettings) {
+            if (setting[0].equalsIgnoreCase("passdb backend")) {
+                backend = setting[1].trim();
+            }
+        }
+        if (!backend.regionMatches(true, 0, "tdbsam", 0, "tdbsam".length())) {
+            return null;
+        }
+
+        Path file = null;
+        int colon = backend.indexOf(':');
+        if (colon >= 0) {
+            file = Paths.get(backend.substring(colon + 1).trim());
+        } else {
+            for (String location : PASSDB_LOCATIONS) {
+                if (Files.isRegularFile(Paths.get(location))) {
+                    file = Paths.get(location);
+                    break;
+                }
+            }
+        }
+        if (file == null || !Files.isRegularFile(file)) {
+            return null;
+        }
+        if (passdbReader == null || !passdbReader.getFile().equals(file)) {
+            passdbReader = new PassdbTdbReader(file);
+        }
+        return passdbReader;
+    }
+
     public void addSambaUser(String username, String password) throws IOException {
         printDebug("Aggiunta utente Samba: " + username);
-        ProcessBuilder pb = new ProcessBuilder("smbpasswd", "-a", username);
+        addSambaUsersWithHashes(Collections.singletonMap(username, PasswordHasher.ntHash(password)));
+        printDebug("Utente Samba aggiunto con successo: " + username);
+    }
 
-        try {
-            Process process = pb.start();
-            try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()))) {
-                writer.write(password);
-                writer.newLine();
-                writer.write(password);
-                writer.newLine();
-                writer.flush();
+    // Crea o aggiorna gli account Samba a partire dagli hash NT (utente -> hash) già calcolati.
+    // I nuovi account vengono importati tutti insieme con un solo "pdbedit -i smbpasswd:file",
+    // quelli esistenti ricevono il nuovo hash con "pdbedit --set-nt-hash".
+    public void addSambaUsersWithHashes(Map<String, String> ntHashes) throws IOException {
+        printDebug("Importazione di " + ntHashes.size() + " utenti Samba tramite hash NT.");
+        Set<String> current = sambaUsers;
+        LinkedHashMap<String, String> newUsers = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : ntHashes.entrySet()) {
+            if (current.contains(entry.getKey())) {
+                List<String> command = Arrays.asList("pdbedit", "-u", entry.getKey(), "--set-nt-hash=" + entry.getValue());
+                executeCommand(command, "Errore durante l'aggiornamento della password Samba: " + entry.getKey());
+            } else {
+                newUsers.put(entry.getKey(), entry.getValue());
             }
+        }
 
-            if (process.waitFor() != 0) {
-                throw new IOException("Errore durante l'aggiunta dell'utente Samba: " + username);
+        if (!newUsers.isEmpty()) {
+            importSmbpasswd(newUsers);
+        }
+        applySambaUserDelta(ntHashes.keySet(), true);
+        recordChange(ServiceChange.Kind.ACCOUNT, String.join(", ", ntHashes.keySet()));
+    }
+
+    private void importSmbpasswd(Map<String, String> ntHashes) throws IOException {
+        HashMap<String, String> uids = new HashMap<>();
+        for (String line : Files.readAllLines(Paths.get("/etc/passwd"), StandardCharsets.UTF_8)) {
+            String[] parts = line.split(":");
+            if (parts.length > 2 && ntHashes.containsKey(parts[0])) {
+                uids.put(parts[0], parts[2]);
             }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new IOException("Errore durante l'aggiunta dell'utente Samba: " + username, e);
         }
 
-        loadSambaUsers();
-        printDebug("Utente Samba aggiunto con successo: " + username);
+        // Formato smbpasswd: nome:uid:hash LM (disabilitato):hash NT:[flag]:LCT-<data in esadecimale>:
+        String lastChange = String.format("LCT-%08X", System.currentTimeMillis() / 1000);
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, String> entry : ntHashes.entrySet()) {
+            String uid = uids.get(entry.getKey());
+            if (uid == null) {
+                throw new IOException("Utente di sistema inesistente: " + entry.getKey());
+            }
+            content.append(entry.getKey()).append(':').append(uid)
+                    .append(":XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX:").append(entry.getValue())
+                    .append(":[U          ]:").append(lastChange).append(":\n");
+        }
+
+        // Il file contiene gli hash: leggibile solo da root e rimosso subito dopo l'importazione
+        Path temp = Files.createTempFile("smbpasswd-import", ".tmp",
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        try {
+            Files.write(temp, content.toString().getBytes(StandardCharsets.UTF_8));
+            List<String> command = Arrays.asList("pdbedit", "-i", "smbpasswd:" + temp);
+            executeCommand(command, "Errore durante l'importazione degli utenti Samba: " + String.join(", ", ntHashes.keySet()));
+        } finally {
+            Files.deleteIfExists(temp);
+        }
     }
 
-    public void removeSambaUser(String username) throws IOException, InterruptedException {
+    public void removeSambaUser(String username) throws IOException {
         printDebug("Rimozione utente Samba: " + username);
-        for (SmbCondBean share : new ArrayList<>(shares)) {
-            if (share.getValidUsers().contains(username)) {
-                printDebug("Rimuovo l'utente dalla condivisione: " + share.getName());
-                share.removeValidUser(username);
-                modifyShare(share.getName(), share);
-            }
+        // Solo le condivisioni che elencano l'utente per nome: l'accesso tramite gruppo resta al gruppo
+        LinkedHashSet<SmbCondBean> direct = sharesByUser.get(username);
+        for (SmbCondBean share : direct == null ? new ArrayList<SmbCondBean>() : new ArrayList<>(direct)) {
+            printDebug("Rimuovo l'utente dalla condivisione: " + share.getName());
+            share.removeValidUser(username);
+            modifyShare(share.getName(), share);
         }
 
         updateConfig();
 
-        ProcessBuilder pb = new ProcessBuilder("smbpasswd", "-x", username);
-        executeCommand(pb, "Errore durante la rimozione dell'utente Samba: " + username);
+        List<String> command = Arrays.asList("smbpasswd", "-x", username);
+        executeCommand(command, "Errore durante la rimozione dell'utente Samba: " + username);
 
-        loadSambaUsers();
+        applySambaUserDelta(Collections.singleton(username), false);
+        recordChange(ServiceChange.Kind.ACCOUNT, username);
         printDebug("Utente Samba rimosso con successo: " + username);
     }
 
-    public ArrayList<String> getSambaUsers() {
+    // Istantanea in sola lettura degli utenti Samba. Viene riletta solo se passdb.tdb è stato
+    // modificato da altri (es. smbpasswd da terminale) dopo l'ultima lettura.
+    public Set<String> getSambaUsers() {
         printDebug("Restituzione lista utenti Samba.");
-        return new ArrayList<>(sambaUsers);
+        if (passdbReader != null && passdbReader.isStale()) {
+            try {
+                printDebug("passdb.tdb modificato esternamente, rilettura degli utenti Samba.");
+                loadSambaUsers();
+            } catch (IOException e) {
+                printDebug("Rilettura degli utenti Samba non riuscita: " + e.getMessage());
+            }
+        }
+        return sambaUsers;
     }
 
     public String getFormattedGlobalSettings() {
@@ -207,63 +433,448 @@ public class SambaManager {
     public String getFormattedShares() {
         printDebug("Restituzione configurazioni condivisioni Samba.");
         StringBuilder builder = new StringBuilder();
-        for (SmbCondBean share : shares) {
-            builder.append(share.toFormattedString()).append("\n");
+        for (SmbCondBean share : shares.values()) {
+            if (!share.isTemplate()) {
+                builder.append(share.toFormattedString()).append("\n");
+            }
+        }
+        return builder.toString();
+    }
+
+    // Restituisce smb.conf così come verrebbe scritto, commenti e ordine originale compresi
+    public String getFormattedConfig() {
+        printDebug("Restituzione configurazione Samba completa.");
+        return renderDocument(document, null, shares.values(), groupIncludeShares().keySet(), null);
+    }
+
+    // Genera il testo di un file: smb.conf se "file" è null, altrimenti un file di smb.conf.d con le
+    // sole condivisioni "candidates" a esso assegnate. Se "rendered" non è null vi costruisce anche il
+    // documento corrispondente, che diventa lo stato caricato dopo una scrittura riuscita.
+    private String renderDocument(SmbConfDocument source, Path file, Collection<SmbCondBean> candidates,
+                                  Collection<Path> includes, SmbConfDocument rendered) {
+        StringBuilder builder = new StringBuilder(source.getPreamble());
+        IdentityHashMap<Object, Set<String>> emitted = new IdentityHashMap<>();
+        boolean main = file == null;
+        boolean hasGlobal = false;
+        boolean hasHomes = false;
+
+        for (SmbConfDocument.Section section : source.getSections()) {
+            int mark = builder.length();
+            SmbConfDocument.Section target;
+            switch (section.getKind()) {
+                case SmbConfDocument.KIND_GLOBAL:
+                    hasGlobal = true;
+                    if (main && (globalDirty || section.getEntries() != globalSettings)) {
+                        section.render(SmbConfDocument.Section.entries(globalSettings), null,
+                                emitted.computeIfAbsent(globalSettings, k -> new HashSet<>()), builder);
+                        target = new SmbConfDocument.Section(section.getName(), SmbConfDocument.KIND_GLOBAL, globalSettings, null);
+                    } else {
+                        target = section;
+                    }
+                    break;
+                case SmbConfDocument.KIND_HOMES:
+                    hasHomes = true;
+                    if (main && (homeDirty || section.getEntries() != homeSettings)) {
+                        section.render(SmbConfDocument.Section.entries(homeSettings), null,
+                                emitted.computeIfAbsent(homeSettings, k -> new HashSet<>()), builder);
+                        target = new SmbConfDocument.Section(section.getName(), SmbConfDocument.KIND_HOMES, homeSettings, null);
+                    } else {
+                        target = section;
+                    }
+                    break;
+                default:
+                    SmbCondBean share = shares.get(shareKey(section.getName()));
+                    if (share == null || !belongsTo(share, file)) {
+                        printDebug("Sezione non più presente nel modello, omessa: " + section.getName());
+                        continue;
+                    }
+                    if (share.isDirty() || section.getShare() != share) {
+                        printDebug("Sezione modificata, riscrittura: " + section.getName());
+                        section.render(share.getProperties(), share.getValidUsers(), emitted.computeIfAbsent(share, k -> new HashSet<>()), builder);
+                        target = new SmbConfDocument.Section(section.getName(), SmbConfDocument.KIND_SHARE, null, share);
+                    } else {
+                        emitted.putIfAbsent(share, Collections.emptySet());
+                        target = section;
+                    }
+                    break;
+            }
+
+            // Le sezioni non modificate sono copiate con il loro testo originale
+            if (target == section) {
+                builder.append(section.getText());
+            }
+            addRenderedSection(rendered, target, builder, mark);
+        }
+
+        // Sezioni nuove, non presenti nel file letto
+        if (main && !hasGlobal && !globalSettings.isEmpty()) {
+            int mark = builder.length();
+            builder.append(getFormattedGlobalSettings()).append("\n");
+            addRenderedSection(rendered, new SmbConfDocument.Section("global", SmbConfDocument.KIND_GLOBAL, globalSettings, null), builder, mark);
+        }
+        if (main && !hasHomes && !homeSettings.isEmpty()) {
+            int mark = builder.length();
+            builder.append(getFormattedHomeSettings()).append("\n");
+            addRenderedSection(rendered, new SmbConfDocument.Section("homes", SmbConfDocument.KIND_HOMES, homeSettings, null), builder, mark);
+        }
+        for (SmbCondBean share : candidates) {
+            if (!emitted.containsKey(share) && belongsTo(share, file)) {
+                int mark = builder.length();
+                builder.append(share.toFormattedString()).append("\n");
+                addRenderedSection(rendered, new SmbConfDocument.Section(share.getName(), SmbConfDocument.KIND_SHARE, null, share), builder, mark);
+            }
+        }
+
+        // I file per condivisione vengono richiamati in fondo a smb.conf
+        if (includes != null) {
+            for (Path include : includes) {
+                builder.append("include = ").append(include).append('\n');
+                if (rendered != null) {
+                    rendered.addInclude(include);
+                }
+            }
+        }
+
+        if (rendered != null) {
+            rendered.setPreamble(source.getPreamble());
         }
         return builder.toString();
     }
 
+    // Vero se la condivisione va scritta nel file indicato (null = smb.conf)
+    private boolean belongsTo(SmbCondBean share, Path file) {
+        if (share.getStore() == ShareStore.USERSHARE) {
+            return false;
+        }
+        if (share.getStore() != ShareStore.INCLUDE_FILE) {
+            return file == null;
+        }
+        return file != null && file.equals(includeFiles.get(shareKey(share.getName())));
+    }
+
+    // Vero se il documento letto corrisponde ancora al modello: stesse condivisioni, nessuna modifica
+    private boolean documentUnchanged(SmbConfDocument source, Path file, int expectedShares) {
+        Set<SmbCondBean> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (SmbConfDocument.Section section : source.getSections()) {
+            switch (section.getKind()) {
+                case SmbConfDocument.KIND_GLOBAL:
+                    if (file == null && section.getEntries() != globalSettings) {
+                        return false;
+                    }
+                    break;
+                case SmbConfDocument.KIND_HOMES:
+                    if (file == null && section.getEntries() != homeSettings) {
+                        return false;
+                    }
+                    break;
+                default:
+                    SmbCondBean share = shares.get(shareKey(section.getName()));
+                    if (share == null || share != section.getShare() || share.isDirty() || !belongsTo(share, file)) {
+                        return false;
+                    }
+                    seen.add(share);
+                    break;
+            }
+        }
+        return seen.size() == expectedShares;
+    }
+
+    // Raggruppa per file le condivisioni salvate in smb.conf.d, assegnando un file a quelle nuove.
+    // I file già letti restano nel loro ordine, anche se ormai vuoti (verranno eliminati).
+    private LinkedHashMap<Path, ArrayList<SmbCondBean>> groupIncludeShares() {
+        LinkedHashMap<Path, ArrayList<SmbCondBean>> groups = new LinkedHashMap<>();
+        for (Path file : includeDocuments.keySet()) {
+            groups.put(file, new ArrayList<>());
+        }
+        HashMap<String, Path> assigned = new HashMap<>();
+        for (Map.Entry<String, SmbCondBean> entry : shares.entrySet()) {
+            if (entry.getValue().getStore() != ShareStore.INCLUDE_FILE) {
+                continue;
+            }
+            Path file = includeFiles.get(entry.getKey());
+            if (file == null) {
+                file = newIncludeFile(entry.getValue().getName(), groups);
+                printDebug("Nuovo file per la condivisione " + entry.getValue().getName() + ": " + file);
+            }
+            groups.computeIfAbsent(file, k -> new ArrayList<>()).add(entry.getValue());
+            assigned.put(entry.getKey(), file);
+        }
+        includeFiles = assigned;
+        return groups;
+    }
+
+    // Nome del file ricavato da quello della condivisione, senza sovrascrivere file esistenti
+    private Path newIncludeFile(String shareName, Map<Path, ?> used) {
+        String base = shareName.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9._-]", "_").replaceFirst("^\\.", "_");
+        Path file = includeDir.resolve(base + ".conf");
+        for (int n = 2; used.containsKey(file) || Files.exists(file); n++) {
+            file = includeDir.resolve(base + "-" + n + ".conf");
+        }
+        return file;
+    }
+
+    private void addRenderedSection(SmbConfDocument rendered, SmbConfDocument.Section section, StringBuilder builder, int mark) {
+        if (rendered != null) {
+            if (section.getText().length() != builder.length() - mark) {
+                section.setText(builder.substring(mark));
+            }
+            rendered.addSection(section);
+        }
+    }
+
+    // Condivisioni vere e proprie, senza i modelli nascosti
     public ArrayList<SmbCondBean> getAllShares() {
         printDebug("Restituzione lista completa delle condivisioni Samba.");
-        return new ArrayList<>(shares);
+        ArrayList<SmbCondBean> result = new ArrayList<>(shares.size());
+        for (SmbCondBean share : shares.values()) {
+            if (!share.isTemplate()) {
+                result.add(share);
+            }
+        }
+        return result;
+    }
+
+    // Nomi delle condivisioni (modelli compresi) che non stanno in smb.conf: file inclusi e usershare.
+    // Servono a chi controlla il solo testo di smb.conf, ad esempio per i riferimenti "copy ="
+    public ArrayList<String> getExternalSectionNames() {
+        ArrayList<String> names = new ArrayList<>();
+        for (SmbCondBean share : shares.values()) {
+            if (!belongsTo(share, null)) {
+                names.add(share.getName());
+            }
+        }
+        return names;
+    }
+
+    // Modello di condivisione "_tpl_<nome>", nascosto con "available = no": viene creato con le
+    // impostazioni indicate solo se non esiste ancora, perché può essere stato modificato a mano
+    public SmbCondBean ensureTemplate(String templateName, Map<String, String> settings) {
+        String sectionName = SmbCondBean.TEMPLATE_PREFIX + templateName;
+        SmbCondBean template = shares.get(shareKey(sectionName));
+        if (template != null) {
+            return template;
+        }
+        printDebug("Creazione del modello di condivisione: " + sectionName);
+        template = new SmbCondBean(sectionName);
+        template.addProperty("available", "no");
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            template.addProperty(setting.getKey(), setting.getValue());
+        }
+        // Samba risolve "copy =" solo verso sezioni già lette: il modello sta in smb.conf, prima degli include
+        template.setStore(ShareStore.SMB_CONF);
+        addShare(template);
+        return template;
+    }
+
+    // Nuova condivisione basata su un modello: contiene solo "copy =", "available = yes" e i valori
+    // che differiscono da quelli ereditati. La condivisione va poi registrata con addShare().
+    public SmbCondBean newShareFromTemplate(String shareName, String templateName, Map<String, String> values) {
+        SmbCondBean template = shares.get(shareKey(SmbCondBean.TEMPLATE_PREFIX + templateName));
+        if (template == null) {
+            throw new IllegalArgumentException("Modello di condivisione non trovato: " + templateName);
+        }
+        SmbCondBean share = new SmbCondBean(shareName);
+        share.addProperty("copy", template.getName());
+        share.addProperty("available", "yes");
+        share.setCopyOf(template);
+        for (Map.Entry<String, String> value : values.entrySet()) {
+            String inherited = template.getProperty(value.getKey());
+            if (value.getValue().equals(inherited) || (inherited == null && value.getValue().isEmpty())) {
+                continue;
+            }
+            share.addProperty(value.getKey(), value.getValue());
+        }
+        printDebug("Condivisione creata dal modello " + template.getName() + ": " + share.toFormattedString().replace("\n", "; "));
+        return share;
     }
 
-    public void updateConfig() throws IOException, InterruptedException {
+    // Scrive solo i file cambiati: i file per condivisione nuovi o modificati, smb.conf se sono
+    // cambiate le sue sezioni o l'elenco degli include, poi le usershare modificate, e infine elimina
+    // i file e le usershare rimasti senza condivisioni
+    public void updateConfig() throws IOException {
         printDebug("Aggiornamento file di configurazione Samba...");
-        Path originalPath = Paths.get(configPath);
-        Path backupPath = Paths.get(configPath + ".bak");
-        Files.copy(originalPath, backupPath, StandardCopyOption.REPLACE_EXISTING);
+        LinkedHashMap<Path, ArrayList<SmbCondBean>> groups = groupIncludeShares();
+        ensureUsershareSupport();
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(configPath))) {
-            writer.write(getFormattedGlobalSettings());
-            writer.write("\n");
-            writer.write(getFormattedHomeSettings());
-            writer.write("\n");
-            writer.write(getFormattedShares());
+        LinkedHashMap<Path, SmbConfDocument> written = new LinkedHashMap<>();
+        for (Map.Entry<Path, ArrayList<SmbCondBean>> entry : groups.entrySet()) {
+            Path file = entry.getKey();
+            if (entry.getValue().isEmpty()) {
+                continue;
+            }
+            SmbConfDocument source = includeDocuments.get(file);
+            if (source != null && documentUnchanged(source, file, entry.getValue().size())) {
+                written.put(file, source);
+                continue;
+            }
+            SmbConfDocument rendered = new SmbConfDocument();
+            String text = renderDocument(source != null ? source : new SmbConfDocument(), file, entry.getValue(), null, rendered);
+            Files.createDirectories(file.getParent());
+            ConfigFileWriter.writeAtomically(file, text, false);
+            written.put(file, rendered);
+            recordChange(ServiceChange.Kind.SHARES, file.toString());
+            printDebug("File della condivisione aggiornato: " + file);
         }
 
-        Thread.sleep(1000);
+        int mainShares = 0;
+        for (SmbCondBean share : shares.values()) {
+            if (belongsTo(share, null)) {
+                mainShares++;
+            }
+        }
+        if (mainDirty || globalDirty || homeDirty
+                || !document.getIncludes().equals(new ArrayList<>(written.keySet()))
+                || !documentUnchanged(document, null, mainShares)) {
+            SmbConfDocument rendered = new SmbConfDocument();
+            String text = renderDocument(document, null, shares.values(), written.keySet(), rendered);
+            ConfigFileWriter.writeAtomically(Paths.get(configPath), text);
+            // Il modello appena scritto è già lo stato del file: nessuna rilettura necessaria
+            document = rendered;
 
-        loadConfig();
+            HashMap<String, String> writtenGlobals = settingsSnapshot(globalSettings);
+            HashSet<String> changedKeys = new HashSet<>(savedGlobals.keySet());
+            changedKeys.addAll(writtenGlobals.keySet());
+            for (String key : changedKeys) {
+                if (!Objects.equals(savedGlobals.get(key), writtenGlobals.get(key))) {
+                    recordChange(ServiceChange.Kind.SETTING, key);
+                }
+            }
+            savedGlobals = writtenGlobals;
+            recordChange(ServiceChange.Kind.SHARES, configPath);
+        } else {
+            printDebug("smb.conf invariato, nessuna scrittura.");
+        }
+
+        // Le usershare vengono scritte dopo smb.conf, che deve già contenere "usershare max shares"
+        for (Map.Entry<String, SmbCondBean> entry : shares.entrySet()) {
+            SmbCondBean share = entry.getValue();
+            if (share.getStore() == ShareStore.USERSHARE && (share.isDirty() || !savedUsershares.containsKey(entry.getKey()))) {
+                usershareStore.save(share);
+                savedUsershares.put(entry.getKey(), share.getName());
+                recordChange(ServiceChange.Kind.USERSHARE, share.getName());
+                printDebug("Usershare salvata: " + share.getName());
+            }
+        }
+        Iterator<Map.Entry<String, String>> saved = savedUsershares.entrySet().iterator();
+        while (saved.hasNext()) {
+            Map.Entry<String, String> entry = saved.next();
+            SmbCondBean share = shares.get(entry.getKey());
+            if (share == null || share.getStore() != ShareStore.USERSHARE) {
+                usershareStore.delete(entry.getValue());
+                saved.remove();
+                recordChange(ServiceChange.Kind.USERSHARE, entry.getValue());
+                printDebug("Usershare eliminata: " + entry.getValue());
+            }
+        }
+
+        // smb.conf non li richiama più: i file delle condivisioni rimosse possono essere eliminati
+        for (Path file : includeDocuments.keySet()) {
+            if (!written.containsKey(file)) {
+                Files.deleteIfExists(file);
+                recordChange(ServiceChange.Kind.SHARES, file.toString());
+                printDebug("File della condivisione eliminato: " + file);
+            }
+        }
+
+        includeDocuments = written;
+        mainDirty = false;
+        globalDirty = false;
+        homeDirty = false;
+        for (SmbCondBean share : shares.values()) {
+            share.markClean();
+        }
         printDebug("File di configurazione Samba aggiornato.");
     }
 
+    // Valori di [global] per parametro in minuscolo, per confrontare ciò che è stato scritto
+    private static HashMap<String, String> settingsSnapshot(List<String[]> settings) {
+        HashMap<String, String> snapshot = new HashMap<>();
+        for (String[] setting : settings) {
+            snapshot.put(SmbConfDictionary.lowerKey(setting[0]), setting[1]);
+        }
+        return snapshot;
+    }
+
+    private void recordChange(ServiceChange.Kind kind, String detail) {
+        synchronized (pendingChanges) {
+            pendingChanges.add(new ServiceChange(ServiceChange.Service.SAMBA, kind, detail));
+        }
+    }
+
+    // Modifiche scritte dall'ultima chiamata, che smbd non ha ancora ricevuto
+    public List<ServiceChange> takePendingChanges() {
+        synchronized (pendingChanges) {
+            ArrayList<ServiceChange> changes = new ArrayList<>(pendingChanges);
+            pendingChanges.clear();
+            return changes;
+        }
+    }
+
+    // Aggiunge a [global] il limite senza il quale smbd ignora le usershare, se ce ne sono
+    private void ensureUsershareSupport() {
+        String[] required = UsershareStore.requiredGlobalSetting();
+        for (SmbCondBean share : shares.values()) {
+            if (share.getStore() == ShareStore.USERSHARE) {
+                for (String[] setting : globalSettings) {
+                    if (setting[0].equalsIgnoreCase(required[0])) {
+                        return;
+                    }
+                }
+                printDebug("Abilitazione delle usershare in [global].");
+                addGlobalSetting(required[0], required[1]);
+                return;
+            }
+        }
+    }
+
     public void addShare(SmbCondBean share) {
         printDebug("Aggiunta condivisione Samba: " + share.getName());
-        shares.add(share);
+        String key = shareKey(share.getName());
+        SmbCondBean previous = shares.get(key);
+        if (share.getStore() == null) {
+            share.setStore(previous != null ? previous.getStore() : defaultStore);
+        }
+        shares.put(key, share);
+        if (previous != null) {
+            printDebug("Condivisione con lo stesso nome sostituita: " + share.getName());
+            unindexShare(previous);
+        }
+        if (share.isTemplate()) {
+            resolveCopies(); // Le condivisioni che lo richiamano devono puntare al nuovo oggetto
+        } else {
+            linkCopy(share);
+        }
+        indexShare(share);
     }
 
     public void modifyShare(String shareName, SmbCondBean updatedShare) {
         printDebug("Modifica condivisione Samba: " + shareName);
-        for (int i = 0; i < shares.size(); i++) {
-            if (shares.get(i).getName().equalsIgnoreCase(shareName)) {
-                if (updatedShare.getValidUsers().isEmpty()) {
-                    printDebug("Condivisione senza utenti validi, la rimuovo: " + shareName);
-                    shares.remove(i);
-                    return;
-                }
-                shares.set(i, updatedShare);
-                printDebug("Condivisione aggiornata con successo: " + shareName);
-                return;
-            }
+        String key = shareKey(shareName);
+        SmbCondBean current = shares.get(key);
+        if (current == null) {
+            throw new IllegalArgumentException("Condivisione non trovata: " + shareName);
+        }
+
+        unindexShare(current);
+        if (updatedShare.getStore() == null) {
+            updatedShare.setStore(current.getStore());
+        }
+        if (updatedShare.getValidUsers().isEmpty()) {
+            printDebug("Condivisione senza utenti validi, la rimuovo: " + shareName);
+            shares.remove(key);
+            return;
         }
-        throw new IllegalArgumentException("Condivisione non trovata: " + shareName);
+        shares.put(key, updatedShare);
+        linkCopy(updatedShare);
+        indexShare(updatedShare);
+        printDebug("Condivisione aggiornata con successo: " + shareName);
     }
 
     public void removeShare(String shareName) {
         printDebug("Rimozione condivisione Samba: " + shareName);
-        boolean removed = shares.removeIf(share -> share.getName().equalsIgnoreCase(shareName));
-        if (removed) {
+        SmbCondBean removed = shares.remove(shareKey(shareName));
+        if (removed != null) {
+            unindexShare(removed);
             printDebug("Condivisione rimossa con successo: " + shareName);
         } else {
             printDebug("Condivisione non trovata per la rimozione: " + shareName);
@@ -272,10 +883,7 @@ public class SambaManager {
 
     public SmbCondBean getShare(String shareName) {
         printDebug("Ricerca condivisione Samba: " + shareName);
-        SmbCondBean share = shares.stream()
-                .filter(s -> s.getName().equalsIgnoreCase(shareName))
-                .findFirst()
-                .orElse(null);
+        SmbCondBean share = shares.get(shareKey(shareName));
         if (share != null) {
             printDebug("Condivisione trovata: " + shareName);
         } else {
@@ -284,36 +892,105 @@ public class SambaManager {
         return share;
     }
 
+    // Condivisioni accessibili all'utente, sia per nome sia tramite un gruppo di cui fa parte
     public ArrayList<SmbCondBean> getSharesByUser(String username) {
         printDebug("Inizio ricerca delle condivisioni per l'utente: " + username);
 
-        ArrayList<SmbCondBean> userShares = new ArrayList<>();
-        printDebug("Numero totale di condivisioni configurate: " + shares.size());
-
-        for (SmbCondBean share : shares) {
-            printDebug("Controllo condivisione: " + share.getName());
-            if (share.getValidUsers().contains(username)) {
-                printDebug("L'utente " + username + " ha accesso alla condivisione: " + share.getName());
-                userShares.add(share);
-            } else {
-                printDebug("L'utente " + username + " non ha accesso alla condivisione: " + share.getName());
+        LinkedHashSet<SmbCondBean> indexed = sharesByUser.get(username);
+        LinkedHashSet<SmbCondBean> found = indexed == null ? new LinkedHashSet<>() : new LinkedHashSet<>(indexed);
+        if (!sharesByGroup.isEmpty()) {
+            for (String group : groupIndex.getGroups(username)) {
+                LinkedHashSet<SmbCondBean> groupShares = sharesByGroup.get(group);
+                if (groupShares != null) {
+                    printDebug("Condivisioni tramite il gruppo " + group + ": " + groupShares.size());
+                    found.addAll(groupShares);
+                }
             }
         }
+        ArrayList<SmbCondBean> userShares = new ArrayList<>(found);
 
         printDebug("Ricerca completata. Numero di condivisioni trovate per l'utente " + username + ": " + userShares.size());
         return userShares;
     }
 
+    public GroupIndex getGroupIndex() {
+        return groupIndex;
+    }
+
+    private static String shareKey(String shareName) {
+        return shareName.toLowerCase(Locale.ROOT);
+    }
+
+    // Collega ogni condivisione alla sezione indicata da "copy =", per risolvere i valori ereditati
+    private void resolveCopies() {
+        for (SmbCondBean share : shares.values()) {
+            linkCopy(share);
+        }
+    }
+
+    private void linkCopy(SmbCondBean share) {
+        String copy = share.getOwnProperty("copy");
+        SmbCondBean source = copy == null ? null : shares.get(shareKey(copy));
+        share.setCopyOf(source == share ? null : source);
+    }
+
+    // Ricostruisce l'indice utente -> condivisioni dopo un caricamento completo
+    private void rebuildShareIndex() {
+        sharesByUser.clear();
+        sharesByGroup.clear();
+        indexedUsers.clear();
+        for (SmbCondBean share : shares.values()) {
+            indexShare(share);
+        }
+        printDebug("Indice utenti/condivisioni ricostruito: " + sharesByUser.size() + " utenti, " + sharesByGroup.size() + " gruppi.");
+    }
+
+    private void indexShare(SmbCondBean share) {
+        ArrayList<String> users = new ArrayList<>(share.getValidUsers());
+        for (String user : users) {
+            indexFor(user).computeIfAbsent(indexKey(user), k -> new LinkedHashSet<>()).add(share);
+        }
+        indexedUsers.put(share, users);
+    }
+
+    // Usa gli utenti registrati al momento dell'indicizzazione, perché la lista della condivisione
+    // può essere già stata modificata dal chiamante prima di modifyShare()
+    private void unindexShare(SmbCondBean share) {
+        ArrayList<String> users = indexedUsers.remove(share);
+        if (users == null) {
+            return;
+        }
+        for (String user : users) {
+            HashMap<String, LinkedHashSet<SmbCondBean>> index = indexFor(user);
+            LinkedHashSet<SmbCondBean> userShares = index.get(indexKey(user));
+            if (userShares != null) {
+                userShares.remove(share);
+                if (userShares.isEmpty()) {
+                    index.remove(indexKey(user));
+                }
+            }
+        }
+    }
+
+    // Le voci "@gruppo" vanno nell'indice dei gruppi, le altre in quello degli utenti
+    private HashMap<String, LinkedHashSet<SmbCondBean>> indexFor(String validUser) {
+        return GroupIndex.isGroupEntry(validUser) ? sharesByGroup : sharesByUser;
+    }
+
+    private static String indexKey(String validUser) {
+        return GroupIndex.isGroupEntry(validUser) ? GroupIndex.groupName(validUser) : validUser;
+    }
+
     private void addOrUpdate(ArrayList<String[]> settings, String key, String value) {
         printDebug("Aggiunta/Aggiornamento impostazione: " + key + " = " + value);
         for (String[] pair : settings) {
             if (pair[0].equalsIgnoreCase(key)) {
-                pair[1] = value;
+                pair[1] = SmbConfDictionary.value(value);
                 printDebug("Impostazione aggiornata: " + key + " = " + value);
                 return;
             }
         }
-        settings.add(new String[]{key, value});
+        settings.add(new String[]{SmbConfDictionary.key(key), SmbConfDictionary.value(value)});
         printDebug("Nuova impostazione aggiunta: " + key + " = " + value);
     }
 
@@ -328,68 +1005,60 @@ public class SambaManager {
     }
 
     // Metodo helper per eseguire comandi con gestione degli errori
-    private void executeCommand(ProcessBuilder pb, String errorMessage) throws IOException {
-        printDebug("Esecuzione comando: " + String.join(" ", pb.command()));
-        try {
-            Process process = pb.start();
-            if (process.waitFor() != 0) {
-                throw new IOException(errorMessage);
-            }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new IOException(errorMessage, e);
-        }
-        printDebug("Comando eseguito con successo: " + String.join(" ", pb.command()));
+    private void executeCommand(List<String> command, String errorMessage) throws IOException {
+        executeCommand(command, errorMessage, CommandExecutor.DEFAULT_TIMEOUT_MILLIS);
     }
 
-    private String executeCommandWithOutput(ProcessBuilder pb, String errorMessage) throws IOException {
-        printDebug("Esecuzione comando con output: " + String.join(" ", pb.command()));
-        StringBuilder output = new StringBuilder();
-        try {
-            Process process = pb.start();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    output.append(line).append("\n");
-                }
-            }
-
-            if (process.waitFor() != 0) {
-                throw new IOException(errorMessage);
-            }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new IOException(errorMessage, e);
-        }
+    private void executeCommand(List<String> command, String errorMessage, long timeoutMillis) throws IOException {
+        printDebug("Esecuzione comando: " + String.join(" ", command));
+        CommandExecutor.Result result = CommandExecutor.getDefault().runChecked(command, null, timeoutMillis, errorMessage);
+        printDebug("Comando eseguito con successo in " + result.getDurationMillis() + " ms: " + String.join(" ", command));
+    }
 
-        printDebug("Comando eseguito con successo con output: " + output);
-        return output.toString();
+    private String executeCommandWithOutput(List<String> command, String errorMessage) throws IOException {
+        printDebug("Esecuzione comando con output: " + String.join(" ", command));
+        CommandExecutor.Result result = CommandExecutor.getDefault().runChecked(command, errorMessage);
+        printDebug("Comando eseguito con successo in " + result.getDurationMillis() + " ms con output: " + result.getStdout());
+        return result.getStdout();
     }
 
     public void addGlobalSetting(String key, String value) {
         printDebug("Aggiunta nuovo GlobalSetting: " + key + " = " + value);
         addOrUpdate(globalSettings, key, value);
+        globalDirty = true;
     }
     public void addHomeSetting(String key, String value) {
         printDebug("Aggiunta nuovo HomeSetting: " + key + " = " + value);
         addOrUpdate(homeSettings, key, value);
+        homeDirty = true;
     }
     public void removeGlobalSetting(String key) {
         printDebug("Rimozione GlobalSetting: " + key);
         removeSetting(globalSettings, key);
+        globalDirty = true;
     }
     public void removeHomeSetting(String key) {
         printDebug("Rimozione HomeSetting: " + key);
         removeSetting(homeSettings, key);
+        homeDirty = true;
     }
 
-    public void startSambaService() throws IOException {
+    // trigger: azione della GUI che ha richiesto l'operazione, per le statistiche di DowntimeStats
+    public void startSambaService(String trigger) throws IOException {
         printDebug("Tentativo di avvio del servizio Samba...");
-        ProcessBuilder pb = new ProcessBuilder("systemctl", "start", "smbd");
-        printDebug("Comando costruito: " + String.join(" ", pb.command()));
+        List<String> command = Arrays.asList("systemctl", "start", "smbd");
+        printDebug("Comando costruito: " + String.join(" ", command));
 
         try {
-            executeCommand(pb, "Errore durante l'avvio del servizio Samba");
+            long start = System.nanoTime();
+            executeCommand(command, "Errore durante l'avvio del servizio Samba", SERVICE_TIMEOUT_MILLIS);
+            awaitReady();
+            recordDowntime(DowntimeStats.Operation.START, trigger, start);
+            long stoppedAt = stoppedAtNanos;
+            if (stoppedAt != 0) {
+                recordDowntime(DowntimeStats.Operation.STOP_START, trigger, stoppedAt);
+                stoppedAtNanos = 0;
+            }
             printDebug("Servizio Samba avviato con successo.");
         } catch (IOException e) {
             printDebug("Errore durante l'avvio del servizio Samba: " + e.getMessage());
@@ -399,11 +1068,12 @@ public class SambaManager {
 
     public void stopSambaService() throws IOException {
         printDebug("Tentativo di arresto del servizio Samba...");
-        ProcessBuilder pb = new ProcessBuilder("systemctl", "stop", "smbd");
-        printDebug("Comando costruito: " + String.join(" ", pb.command()));
+        List<String> command = Arrays.asList("systemctl", "stop", "smbd");
+        printDebug("Comando costruito: " + String.join(" ", command));
 
         try {
-            executeCommand(pb, "Errore durante l'arresto del servizio Samba");
+            stoppedAtNanos = System.nanoTime();
+            executeCommand(command, "Errore durante l'arresto del servizio Samba", SERVICE_TIMEOUT_MILLIS);
             printDebug("Servizio Samba arrestato con successo.");
         } catch (IOException e) {
             printDebug("Errore durante l'arresto del servizio Samba: " + e.getMessage());
@@ -411,77 +1081,61 @@ public class SambaManager {
         }
     }
 
-    public void readConfigFromText(String configText) throws IOException {
-        printDebug("Inizio aggiornamento della configurazione interna da testo.");
-
-        globalSettings.clear();
-        homeSettings.clear();
-        shares.clear();
+    // Fa rileggere la configurazione a smbd senza interrompere le connessioni aperte
+    public void reloadSambaService(String trigger) throws IOException {
+        printDebug("Ricaricamento della configurazione di Samba...");
+        long start = System.nanoTime();
+        try {
+            executeCommand(Arrays.asList("smbcontrol", "smbd", "reload-config"), "Errore durante il ricaricamento di Samba");
+        } catch (IOException e) {
+            printDebug("smbcontrol non riuscito, uso systemctl: " + e.getMessage());
+            executeCommand(Arrays.asList("systemctl", "reload", "smbd"), "Errore durante il ricaricamento di Samba", SERVICE_TIMEOUT_MILLIS);
+        }
+        recordDowntime(DowntimeStats.Operation.RELOAD, trigger, start);
+        printDebug("Configurazione di Samba ricaricata.");
+    }
 
-        BufferedReader reader = new BufferedReader(new StringReader(configText));
-        SmbCondBean currentShare = null;
-        String currentSection = null;
-        String line;
+    public void restartSambaService(String trigger) throws IOException {
+        printDebug("Riavvio del servizio Samba...");
+        long start = System.nanoTime();
+        executeCommand(Arrays.asList("systemctl", "restart", "smbd"), "Errore durante il riavvio del servizio Samba", SERVICE_TIMEOUT_MILLIS);
+        awaitReady();
+        recordDowntime(DowntimeStats.Operation.RESTART, trigger, start);
+        printDebug("Servizio Samba riavviato con successo.");
+    }
 
-        while ((line = reader.readLine()) != null) {
-            line = line.trim();
-            if (line.isEmpty() || line.startsWith("#")) {
-                continue;
-            }
+    private void recordDowntime(DowntimeStats.Operation operation, String trigger, long startNanos) {
+        long millis = (System.nanoTime() - startNanos) / 1_000_000;
+        DowntimeStats.Histogram histogram = DowntimeStats.getDefault().record(ServiceChange.Service.SAMBA, operation, trigger, millis);
+        printDebug("Samba " + operation + " (" + trigger + "): " + millis + " ms; " + histogram);
+    }
 
-            if (line.startsWith("[")) {
-                // Gestione cambio sezione
-                String section = line.substring(1, line.length() - 1);
-                currentSection = section.toLowerCase();
+    // Porte su cui smbd è in ascolto secondo il parametro "smb ports" scritto su disco
+    public List<Integer> getListeningPorts() {
+        String value = savedGlobals.get("smb ports");
+        List<Integer> ports = ServiceReadinessProbe.parsePorts(value == null ? "" : value);
+        return ports.isEmpty() ? ServiceReadinessProbe.parsePorts(DEFAULT_SMB_PORTS) : ports;
+    }
 
-                if (currentShare != null) {
-                    shares.add(currentShare);
-                    printDebug("Condivisione aggiunta: " + currentShare.getName());
-                }
+    // systemctl ritorna quando il processo è partito: si attende che smbd accetti connessioni
+    private void awaitReady() throws IOException {
+        long start = System.nanoTime();
+        ServiceReadinessProbe.awaitListening("Samba", getListeningPorts(), ServiceReadinessProbe.DEFAULT_TIMEOUT_MILLIS);
+        printDebug("Samba in ascolto su " + getListeningPorts() + " dopo " + (System.nanoTime() - start) / 1_000_000 + " ms.");
+    }
 
-                if (section.equalsIgnoreCase("global")) {
-                    currentShare = null;
-                    printDebug("Sezione Global individuata.");
-                } else if (section.equalsIgnoreCase("homes")) {
-                    currentShare = null;
-                    printDebug("Sezione Homes individuata.");
-                } else {
-                    currentShare = new SmbCondBean(section);
-                    printDebug("Inizio nuova condivisione: " + section);
-                }
-            } else {
-                String[] keyValue = line.split("=", 2);
-                if (keyValue.length == 2) {
-                    String key = keyValue[0].trim();
-                    String value = keyValue[1].trim();
-
-                    if ("global".equals(currentSection)) {
-                        globalSettings.add(new String[]{key, value});
-                        printDebug("Aggiunta impostazione Global: " + key + " = " + value);
-                    } else if ("homes".equals(currentSection)) {
-                        homeSettings.add(new String[]{key, value});
-                        printDebug("Aggiunta impostazione Home: " + key + " = " + value);
-                    } else if (currentShare != null) {
-                        if (key.equalsIgnoreCase("valid users")) {
-                            String[] users = value.split(",");
-                            for (String user : users) {
-                                currentShare.addValidUser(user.trim());
-                                printDebug("Aggiunto valid user: " + user.trim());
-                            }
-                        } else {
-                            currentShare.addProperty(key, value);
-                            printDebug("Aggiunta proprietà alla condivisione: " + key + " = " + value);
-                        }
-                    }
-                }
+    public void readConfigFromText(String configText) throws IOException {
+        printDebug("Inizio aggiornamento della configurazione interna da testo.");
+        // Il testo dell'editor riguarda solo smb.conf: i file inclusi e le usershare già letti vengono riusati
+        ArrayList<SmbCondBean> userShares = new ArrayList<>();
+        for (SmbCondBean share : shares.values()) {
+            if (share.getStore() == ShareStore.USERSHARE) {
+                userShares.add(share);
             }
         }
-
-        if (currentShare != null) {
-            shares.add(currentShare);
-            printDebug("Condivisione finale aggiunta: " + currentShare.getName());
-        }
-
+        SmbConfDocument parsed = SmbConfParser.parse(configText, includeDir);
+        applyDocument(parsed, loadIncludes(parsed.getIncludes(), includeDocuments), userShares);
+        mainDirty = true;
         printDebug("Aggiornamento configurazione interna completato.");
     }
 
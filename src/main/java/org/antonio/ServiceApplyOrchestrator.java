@@ -0,0 +1,180 @@
+package org.antonio;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Punto unico da cui la GUI chiede di applicare ai servizi le modifiche salvate. Le richieste
+// che arrivano entro una finestra di tempo vengono unite: alla scadenza ogni servizio riceve una
+// sola azione (la più costosa richiesta), e Samba e FTP vengono ricaricati o riavviati in parallelo.
+// Un solo thread esegue le applicazioni, quindi due lotti non si sovrappongono mai.
+public class ServiceApplyOrchestrator {
+    public static final long DEFAULT_WINDOW_MILLIS = 3_000;
+
+    public enum State {IDLE, PENDING, APPLYING}
+
+    // Notificato dal thread dell'orchestratore: la GUI deve passare per SwingUtilities.invokeLater
+    public interface Listener {
+        void stateChanged(State state, String description);
+
+        void applyFailed(String message);
+    }
+
+    // Lo stato del lotto è già comunicato ai listener dell'orchestratore
+    private static final JobGraph.ProgressListener PROGRESS = new JobGraph.ProgressListener() {
+        @Override
+        public void stepStarted(JobGraph.Step step) {
+        }
+
+        @Override
+        public void stepFinished(JobGraph.Step step) {
+        }
+    };
+
+    private final ServiceChangeEngine engine;
+    private final long windowMillis;
+    private final ScheduledExecutorService scheduler;
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final ArrayList<ServiceChange> collected = new ArrayList<>(); // Modifiche in attesa
+    private final LinkedHashSet<String> triggers = new LinkedHashSet<>(); // Azioni della GUI che le hanno prodotte
+    private ScheduledFuture<?> scheduled; // Applicazione programmata, null se non ce n'è una
+    private State state = State.IDLE;
+
+    public ServiceApplyOrchestrator(ServiceChangeEngine engine, long windowMillis) {
+        this.engine = engine;
+        this.windowMillis = windowMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "service-apply");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    // Raccoglie le modifiche appena salvate e, se richiedono un'azione, programma l'applicazione
+    // alla fine della finestra aperta dalla prima richiesta. trigger è l'azione della GUI che ha
+    // salvato le modifiche (es. "saveUserChanges"). Restituisce le azioni in attesa.
+    public synchronized EnumMap<ServiceChange.Service, ServiceChangeEngine.Action> requestApply(String trigger) {
+        collected.addAll(engine.takePendingChanges());
+        EnumMap<ServiceChange.Service, ServiceChangeEngine.Action> plan = ServiceChangeEngine.classify(collected);
+        if (!needsAction(plan)) {
+            collected.clear(); // Modifiche già effettive senza toccare i servizi
+            triggers.clear();
+            return plan;
+        }
+        triggers.add(trigger);
+        if (scheduled == null) {
+            scheduled = scheduler.schedule(this::applyCollected, windowMillis, TimeUnit.MILLISECONDS);
+        }
+        if (state != State.APPLYING) {
+            setState(State.PENDING, "In attesa di applicazione: " + describePlan(plan));
+        }
+        return plan;
+    }
+
+    // Applica subito le modifiche in attesa e attende la fine (es. alla chiusura dell'applicazione)
+    public void flush() throws InterruptedException {
+        synchronized (this) {
+            if (scheduled != null) {
+                scheduled.cancel(false);
+                scheduled = null;
+            }
+        }
+        try {
+            scheduler.submit(this::applyCollected).get();
+        } catch (ExecutionException e) {
+            // Gli errori sono già stati notificati ai listener
+        }
+    }
+
+    private void applyCollected() {
+        ArrayList<ServiceChange> batch;
+        String trigger;
+        synchronized (this) {
+            batch = new ArrayList<>(collected);
+            trigger = String.join(" + ", triggers); // Un lotto unito è attribuito a tutte le azioni
+            collected.clear();
+            triggers.clear();
+            scheduled = null;
+            if (batch.isEmpty()) {
+                return;
+            }
+            setState(State.APPLYING, "Applicazione delle modifiche ai servizi in corso...");
+        }
+
+        EnumMap<ServiceChange.Service, ServiceChangeEngine.Action> plan = ServiceChangeEngine.classify(batch);
+        ConcurrentHashMap<ServiceChange.Service, ServiceChangeEngine.Action> results = new ConcurrentHashMap<>();
+        JobGraph job = new JobGraph("applicazione delle modifiche ai servizi");
+        for (Map.Entry<ServiceChange.Service, ServiceChangeEngine.Action> entry : plan.entrySet()) {
+            if (entry.getValue() != ServiceChangeEngine.Action.NONE) {
+                ServiceChange.Service service = entry.getKey();
+                job.addStep(service.name(), entry.getValue() + " " + service,
+                        () -> results.put(service, engine.apply(service, entry.getValue(), trigger)),
+                        EnumSet.noneOf(JobGraph.Resource.class));
+            }
+        }
+
+        String outcome;
+        try {
+            job.run(PROGRESS);
+            EnumMap<ServiceChange.Service, ServiceChangeEngine.Action> applied = new EnumMap<>(results);
+            outcome = "Ultime modifiche applicate: " + ServiceChangeEngine.describe(applied);
+        } catch (IOException e) {
+            outcome = "Applicazione delle modifiche non riuscita";
+            for (Listener listener : listeners) {
+                listener.applyFailed(e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            outcome = "Applicazione delle modifiche interrotta";
+        }
+
+        synchronized (this) {
+            if (scheduled != null) {
+                // Altre modifiche sono arrivate durante l'applicazione: verranno unite nel prossimo lotto
+                setState(State.PENDING, "In attesa di applicazione: " + describePlan(ServiceChangeEngine.classify(collected)));
+            } else {
+                setState(State.IDLE, outcome);
+            }
+        }
+    }
+
+    // Descrizione per l'utente delle azioni in attesa
+    public static String describePlan(EnumMap<ServiceChange.Service, ServiceChangeEngine.Action> plan) {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<ServiceChange.Service, ServiceChangeEngine.Action> entry : plan.entrySet()) {
+            if (entry.getValue() == ServiceChangeEngine.Action.NONE) {
+                continue;
+            }
+            if (text.length() > 0) {
+                text.append(", ");
+            }
+            text.append(entry.getKey() == ServiceChange.Service.SAMBA ? "Samba" : "FTP")
+                    .append(entry.getValue() == ServiceChangeEngine.Action.RELOAD ? " da ricaricare" : " da riavviare");
+        }
+        return text.length() == 0 ? "nessun riavvio necessario" : text.toString();
+    }
+
+    private static boolean needsAction(EnumMap<ServiceChange.Service, ServiceChangeEngine.Action> plan) {
+        for (ServiceChangeEngine.Action action : plan.values()) {
+            if (action != ServiceChangeEngine.Action.NONE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void setState(State newState, String description) {
+        state = newState;
+        for (Listener listener : listeners) {
+            listener.stateChanged(newState, description);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.antonio;
+
+// Modifica già scritta su disco che può richiedere di ricaricare o riavviare un servizio.
+// SambaManager e FtpManager le accumulano; ServiceChangeEngine decide cosa serve per applicarle.
+public class ServiceChange {
+
+    public enum Service {SAMBA, FTP}
+
+    public enum Kind {
+        SETTING,    // Parametro globale (detail = nome del parametro)
+        SHARES,     // Definizioni delle condivisioni in un file di configurazione
+        USERSHARE,  // Usershare di Samba, lette da smbd a ogni connessione
+        ACCOUNT,    // Account del database di Samba
+        USER_LIST,  // vsftpd.userlist, letto da vsftpd a ogni accesso
+        MOUNT       // Bind mount delle condivisioni FTP
+    }
+
+    private final Service service;
+    private final Kind kind;
+    private final String detail;
+
+    public ServiceChange(Service service, Kind kind, String detail) {
+        this.service = service;
+        this.kind = kind;
+        this.detail = detail;
+    }
+
+    public Service getService() {
+        return service;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getDetail() {
+        return detail;
+    }
+
+    @Override
+    public String toString() {
+        return service + " " + kind + (detail != null ? " " + detail : "");
+    }
+}
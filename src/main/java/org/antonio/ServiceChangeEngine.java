@@ -0,0 +1,149 @@
+package org.antonio;
+
+import java.io.IOException;
+import java.util.*;
+
+// Decide, per ogni gruppo di modifiche già scritte su disco, l'azione meno costosa che le rende
+// effettive: nessuna (file letti a ogni connessione o accesso), ricaricamento della configurazione
+// (le connessioni aperte restano attive) o riavvio del servizio (solo per i parametri che il
+// processo legge all'avvio, come le interfacce e le porte in ascolto).
+public class ServiceChangeEngine {
+
+    // In ordine di costo: per più modifiche vale la più costosa
+    public enum Action {NONE, RELOAD, RESTART}
+
+    // Parametri di [global] che smbd applica solo all'avvio
+    private static final Set<String> SAMBA_RESTART_SETTINGS = new HashSet<>(Arrays.asList(
+            "interfaces", "bind interfaces only", "smb ports", "netbios name", "netbios aliases", "server role",
+            "security", "passdb backend", "realm", "workgroup", "server services", "disable netbios",
+            "lock directory", "state directory", "cache directory", "private dir", "pid directory", "ncalrpc dir"
+    ));
+    // Parametri di vsftpd.conf legati al socket in ascolto, che SIGHUP non ricrea
+    private static final Set<String> FTP_RESTART_SETTINGS = new HashSet<>(Arrays.asList(
+            "listen", "listen_ipv6", "listen_port", "listen_address", "listen_address6", "background",
+            "run_as_launching_user", "one_process_model"
+    ));
+
+    private final SambaManager sambaManager;
+    private final FtpManager ftpManager;
+
+    public ServiceChangeEngine(SambaManager sambaManager, FtpManager ftpManager) {
+        this.sambaManager = sambaManager;
+        this.ftpManager = ftpManager;
+    }
+
+    public static Action classify(ServiceChange change) {
+        switch (change.getKind()) {
+            case SETTING:
+                Set<String> restartSettings = change.getService() == ServiceChange.Service.SAMBA
+                        ? SAMBA_RESTART_SETTINGS : FTP_RESTART_SETTINGS;
+                return restartSettings.contains(change.getDetail()) ? Action.RESTART : Action.RELOAD;
+            case SHARES:
+                return Action.RELOAD;
+            default:
+                // Usershare, database degli utenti Samba, vsftpd.userlist e bind mount vengono letti
+                // dai servizi a ogni nuova connessione
+                return Action.NONE;
+        }
+    }
+
+    // Azione necessaria per ciascun servizio
+    public static EnumMap<ServiceChange.Service, Action> classify(Collection<ServiceChange> changes) {
+        EnumMap<ServiceChange.Service, Action> plan = new EnumMap<>(ServiceChange.Service.class);
+        for (ServiceChange.Service service : ServiceChange.Service.values()) {
+            plan.put(service, Action.NONE);
+        }
+        for (ServiceChange change : changes) {
+            Action action = classify(change);
+            if (action.compareTo(plan.get(change.getService())) > 0) {
+                plan.put(change.getService(), action);
+            }
+        }
+        return plan;
+    }
+
+    // Modifiche scritte da SambaManager e FtpManager e non ancora applicate
+    public List<ServiceChange> takePendingChanges() {
+        ArrayList<ServiceChange> changes = new ArrayList<>(sambaManager.takePendingChanges());
+        changes.addAll(ftpManager.takePendingChanges());
+        return changes;
+    }
+
+    // Raccoglie le modifiche scritte da SambaManager e FtpManager e le applica. Restituisce le
+    // azioni effettivamente eseguite.
+    public EnumMap<ServiceChange.Service, Action> applyPendingChanges(String trigger) throws IOException {
+        return apply(classify(takePendingChanges()), trigger);
+    }
+
+    public EnumMap<ServiceChange.Service, Action> apply(EnumMap<ServiceChange.Service, Action> plan, String trigger) throws IOException {
+        EnumMap<ServiceChange.Service, Action> applied = new EnumMap<>(ServiceChange.Service.class);
+        for (Map.Entry<ServiceChange.Service, Action> entry : plan.entrySet()) {
+            applied.put(entry.getKey(), apply(entry.getKey(), entry.getValue(), trigger));
+        }
+        return applied;
+    }
+
+    // Applica l'azione a un servizio e restituisce quella eseguita davvero; trigger è l'azione della
+    // GUI che l'ha richiesta, registrata nei tempi di DowntimeStats
+    public Action apply(ServiceChange.Service service, Action action, String trigger) throws IOException {
+        if (action != Action.NONE && !isActive(service)) {
+            return Action.NONE; // Un servizio fermo leggerà la nuova configurazione all'avvio
+        }
+        if (action == Action.RELOAD) {
+            try {
+                reload(service, trigger);
+                return Action.RELOAD;
+            } catch (IOException e) {
+                action = Action.RESTART; // Ricaricamento non riuscito: si ripiega sul riavvio
+            }
+        }
+        if (action == Action.RESTART) {
+            restart(service, trigger);
+        }
+        return action;
+    }
+
+    // Descrizione per l'utente delle azioni eseguite
+    public static String describe(EnumMap<ServiceChange.Service, Action> applied) {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<ServiceChange.Service, Action> entry : applied.entrySet()) {
+            if (entry.getValue() == Action.NONE) {
+                continue;
+            }
+            if (text.length() > 0) {
+                text.append(", ");
+            }
+            text.append(entry.getKey() == ServiceChange.Service.SAMBA ? "Samba" : "FTP")
+                    .append(entry.getValue() == Action.RELOAD ? " ricaricato" : " riavviato");
+        }
+        return text.length() == 0 ? "nessun servizio riavviato" : text.toString();
+    }
+
+    private static String unit(ServiceChange.Service service) {
+        return service == ServiceChange.Service.SAMBA ? "smbd" : "vsftpd";
+    }
+
+    private static boolean isActive(ServiceChange.Service service) {
+        try {
+            return CommandExecutor.getDefault().run(Arrays.asList("systemctl", "is-active", "--quiet", unit(service))).isSuccess();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void reload(ServiceChange.Service service, String trigger) throws IOException {
+        if (service == ServiceChange.Service.SAMBA) {
+            sambaManager.reloadSambaService(trigger);
+        } else {
+            ftpManager.reloadFtpService(trigger);
+        }
+    }
+
+    private void restart(ServiceChange.Service service, String trigger) throws IOException {
+        if (service == ServiceChange.Service.SAMBA) {
+            sambaManager.restartSambaService(trigger);
+        } else {
+            ftpManager.restartFtpService(trigger);
+        }
+    }
+}
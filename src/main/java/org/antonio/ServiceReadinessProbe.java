@@ -0,0 +1,91 @@
+package org.antonio;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+// Attende che un servizio appena avviato accetti davvero connessioni, cioè che esista un socket in
+// LISTEN sulle sue porte. Le tabelle del kernel /proc/net/tcp e /proc/net/tcp6 vengono rilette a
+// intervalli brevi: nessun processo esterno e nessuna connessione di prova verso il servizio.
+public class ServiceReadinessProbe {
+    public static final long DEFAULT_TIMEOUT_MILLIS = 15_000;
+    private static final long POLL_INTERVAL_MILLIS = 20;
+    private static final String LISTEN_STATE = "0A"; // TCP_LISTEN in include/net/tcp_states.h
+
+    private static final List<Path> TCP_TABLES = Arrays.asList(Paths.get("/proc/net/tcp"), Paths.get("/proc/net/tcp6"));
+
+    private ServiceReadinessProbe() {
+    }
+
+    // Porte locali con almeno un socket in LISTEN, su IPv4 o IPv6
+    public static Set<Integer> listeningPorts() throws IOException {
+        HashSet<Integer> ports = new HashSet<>();
+        for (Path table : TCP_TABLES) {
+            try (BufferedReader reader = Files.newBufferedReader(table, StandardCharsets.US_ASCII)) {
+                reader.readLine(); // Intestazione
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // "  sl  local_address rem_address   st ..." con indirizzi nella forma HEXIP:HEXPORT
+                    String[] fields = line.trim().split("\\s+", 5);
+                    if (fields.length < 4 || !fields[3].equals(LISTEN_STATE)) {
+                        continue;
+                    }
+                    int colon = fields[1].lastIndexOf(':');
+                    if (colon >= 0) {
+                        ports.add(Integer.parseInt(fields[1].substring(colon + 1), 16));
+                    }
+                }
+            } catch (NoSuchFileException e) {
+                // Kernel senza IPv6: resta solo /proc/net/tcp
+            }
+        }
+        return ports;
+    }
+
+    // Ritorna appena tutte le porte sono in ascolto; scaduto il tempo lancia una IOException con le
+    // porte mancanti. Senza porte (es. servizio avviato da inetd) non c'è nulla da attendere.
+    public static void awaitListening(String service, Collection<Integer> ports, long timeoutMillis) throws IOException {
+        if (ports.isEmpty()) {
+            return;
+        }
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000;
+        HashSet<Integer> missing = new HashSet<>(ports);
+        while (true) {
+            missing.removeAll(listeningPorts());
+            if (missing.isEmpty()) {
+                return;
+            }
+            if (System.nanoTime() - deadline >= 0) {
+                throw new IOException(service + " non accetta connessioni dopo " + timeoutMillis
+                        + " ms: nessun socket in ascolto sulle porte " + missing);
+            }
+            try {
+                Thread.sleep(POLL_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Attesa di " + service + " interrotta", e);
+            }
+        }
+    }
+
+    // Porte di un elenco come "445 139" o "445, 139"; le voci non numeriche vengono ignorate
+    public static List<Integer> parsePorts(String value) {
+        ArrayList<Integer> ports = new ArrayList<>();
+        for (String token : value.trim().split("[\\s,]+")) {
+            try {
+                int port = Integer.parseInt(token);
+                if (port > 0 && port <= 65535) {
+                    ports.add(port);
+                }
+            } catch (NumberFormatException e) {
+                // Valore non valido: il servizio userà il proprio default
+            }
+        }
+        return ports;
+    }
+}
@@ -0,0 +1,8 @@
+package org.antonio;
+
+// Dove viene salvata la definizione di una condivisione Samba
+public enum ShareStore {
+    SMB_CONF,     // Sezione all'interno di smb.conf
+    INCLUDE_FILE, // File dedicato in smb.conf.d, richiamato da smb.conf con "include ="
+    USERSHARE     // Usershare di Samba (net usershare): nessuna modifica a smb.conf né reload di smbd
+}
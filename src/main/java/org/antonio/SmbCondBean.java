@@ -1,18 +1,23 @@
 package org.antonio;
 
-import java.util.ArrayList;
-
 import java.util.*;
 
 public class SmbCondBean {
+    // Le sezioni con questo prefisso sono modelli nascosti ("available = no") richiamati con "copy ="
+    public static final String TEMPLATE_PREFIX = "_tpl_";
+    private static final int MAX_COPY_DEPTH = 16; // Protezione da catene "copy =" circolari
+
     private String name;
-    private ArrayList<String[]> properties;
-    private ArrayList<String> validUsers; // Nuova lista per "valid users"
+    private LinkedHashMap<String, Map.Entry<String, String>> properties; // Chiave in minuscolo -> coppia immutabile di SmbConfDictionary
+    private LinkedHashSet<String> validUsers; // Nuova lista per "valid users"
+    private boolean dirty; // Modificata dall'ultimo caricamento o salvataggio
+    private ShareStore store; // Dove è salvata la condivisione (null = scelta predefinita di SambaManager)
+    private SmbCondBean copyOf; // Sezione indicata da "copy =", da cui vengono ereditate le proprietà
 
     public SmbCondBean(String name) {
         this.name = name;
-        this.properties = new ArrayList<>();
-        this.validUsers = new ArrayList<>();
+        this.properties = new LinkedHashMap<>();
+        this.validUsers = new LinkedHashSet<>();
     }
 
     public String getName() {
@@ -20,39 +25,100 @@ public class SmbCondBean {
     }
 
     public void addProperty(String key, String value) {
-        addOrUpdate(properties, key, value);
+        addOrUpdate(key, value);
+        dirty = true;
     }
 
     public void modifyProperty(String key, String value) {
-        addOrUpdate(properties, key, value);
+        addOrUpdate(key, value);
+        dirty = true;
     }
 
     public void removeProperty(String key) {
-        properties.removeIf(pair -> pair[0].equalsIgnoreCase(key));
+        if (properties.remove(SmbConfDictionary.lowerKey(key)) != null) {
+            dirty = true;
+        }
+    }
+
+    // Valore della proprietà (chiave senza distinzione tra maiuscole e minuscole), null se assente.
+    // Se la condivisione non la definisce, il valore viene cercato nella sezione indicata da "copy =".
+    public String getProperty(String key) {
+        String lowerKey = SmbConfDictionary.lowerKey(key);
+        SmbCondBean current = this;
+        for (int depth = 0; current != null && depth < MAX_COPY_DEPTH; depth++) {
+            Map.Entry<String, String> pair = current.properties.get(lowerKey);
+            if (pair != null) {
+                return pair.getValue();
+            }
+            current = current.copyOf;
+        }
+        return null;
     }
 
-    public ArrayList<String[]> getProperties() {
-        return properties;
+    // Valore definito direttamente nella sezione, senza ereditarietà
+    public String getOwnProperty(String key) {
+        Map.Entry<String, String> pair = properties.get(SmbConfDictionary.lowerKey(key));
+        return pair == null ? null : pair.getValue();
+    }
+
+    // Vista in sola lettura delle coppie chiave-valore definite nella sezione (quelle ereditate escluse)
+    public Collection<Map.Entry<String, String>> getProperties() {
+        return Collections.unmodifiableCollection(properties.values());
     }
 
     public void addValidUser(String username) {
-        if (!validUsers.contains(username)) {
-            validUsers.add(username);
+        if (validUsers.add(SmbConfDictionary.value(username))) {
+            dirty = true;
         }
     }
 
     public void removeValidUser(String username) {
-        validUsers.remove(username);
+        if (validUsers.remove(username)) {
+            dirty = true;
+        }
+    }
+
+    // Vista in sola lettura degli utenti validi
+    public Set<String> getValidUsers() {
+        return Collections.unmodifiableSet(validUsers);
+    }
+
+    public boolean isTemplate() {
+        return name.regionMatches(true, 0, TEMPLATE_PREFIX, 0, TEMPLATE_PREFIX.length());
     }
 
-    public ArrayList<String> getValidUsers() {
-        return new ArrayList<>(validUsers);
+    public SmbCondBean getCopyOf() {
+        return copyOf;
+    }
+
+    void setCopyOf(SmbCondBean copyOf) {
+        this.copyOf = copyOf;
+    }
+
+    public ShareStore getStore() {
+        return store;
+    }
+
+    public void setStore(ShareStore store) {
+        this.store = store;
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    void markDirty() {
+        dirty = true;
+    }
+
+    void markClean() {
+        dirty = false;
     }
 
     public String toFormattedString() {
         StringBuilder builder = new StringBuilder("[").append(name).append("]\n");
-        for (String[] property : properties) {
-            builder.append(property[0]).append(" = ").append(property[1]).append("\n");
+        for (Map.Entry<String, String> property : properties.values()) {
+            builder.append(property.getKey()).append(" = ").append(property.getValue()).append("\n");
         }
         if (!validUsers.isEmpty()) {
             builder.append("valid users = ").append(String.join(", ", validUsers)).append("\n");
@@ -60,13 +126,11 @@ public class SmbCondBean {
         return builder.toString();
     }
 
-    private void addOrUpdate(ArrayList<String[]> properties, String key, String value) {
-        for (String[] pair : properties) {
-            if (pair[0].equalsIgnoreCase(key)) {
-                pair[1] = value;
-                return;
-            }
-        }
-        properties.add(new String[]{key, value});
+    // Le coppie sono immutabili e condivise: un aggiornamento sostituisce la coppia, mantenendo la
+    // grafia originale della chiave e la posizione nella mappa
+    private void addOrUpdate(String key, String value) {
+        String lowerKey = SmbConfDictionary.lowerKey(key);
+        Map.Entry<String, String> pair = properties.get(lowerKey);
+        properties.put(lowerKey, SmbConfDictionary.pair(pair != null ? pair.getKey() : key, value));
     }
 }
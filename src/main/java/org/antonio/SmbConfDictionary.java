@@ -0,0 +1,109 @@
+package org.antonio;
+
+import java.util.AbstractMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Dizionario condiviso per i parametri di smb.conf: con migliaia di condivisioni le stesse chiavi
+// ("path", "browsable", "create mask", ...) e gli stessi valori brevi ("yes", "no", "0664", ...)
+// si ripetono in ogni sezione. Qui ogni stringa esiste una sola volta e le coppie chiave-valore
+// più comuni sono condivise tra tutte le condivisioni: sono immutabili, quindi nessuno può
+// cambiare un'impostazione di tutte le condivisioni modificandone una.
+public final class SmbConfDictionary {
+    private static final int MAX_INTERNED_VALUE_LENGTH = 16; // Valori più lunghi (percorsi, commenti) non si ripetono
+    private static final int MAX_ENTRIES = 8192; // Limite per non far crescere il dizionario senza controllo
+
+    // Parametri più usati, pre-caricati con la grafia canonica
+    private static final String[] KNOWN_KEYS = {
+            "path", "comment", "browsable", "browseable", "writable", "writeable", "read only", "guest ok",
+            "create mask", "directory mask", "force create mode", "force directory mode", "force user",
+            "force group", "valid users", "invalid users", "write list", "read list", "admin users",
+            "available", "printable", "public", "hide dot files", "inherit permissions", "inherit acls",
+            "vfs objects", "copy", "include", "workgroup", "server string", "security", "map to guest",
+            "passdb backend", "log file", "max log size", "logging", "server role", "usershare allow guests",
+            "obey pam restrictions", "unix password sync", "pam password change", "panic action"
+    };
+    private static final String[] KNOWN_VALUES = {
+            "yes", "no", "true", "false", "0664", "0775", "0644", "0755", "0700", "0600", "0777", "0660", "0770"
+    };
+
+    private static final ConcurrentHashMap<String, String> KEYS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, String> LOWER_KEYS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, String> VALUES = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<String, Map.Entry<String, String>>> PAIRS = new ConcurrentHashMap<>();
+
+    static {
+        for (String key : KNOWN_KEYS) {
+            KEYS.put(key, key);
+            LOWER_KEYS.put(key, key);
+        }
+        for (String value : KNOWN_VALUES) {
+            VALUES.put(value, value);
+        }
+    }
+
+    private SmbConfDictionary() {
+    }
+
+    // Istanza canonica della chiave
+    public static String key(String key) {
+        return intern(KEYS, key);
+    }
+
+    // Istanza canonica della chiave in minuscolo, usata come chiave delle mappe di SmbCondBean
+    public static String lowerKey(String key) {
+        String lower = LOWER_KEYS.get(key);
+        if (lower == null) {
+            lower = intern(KEYS, key.toLowerCase(Locale.ROOT));
+            if (LOWER_KEYS.size() < MAX_ENTRIES) {
+                LOWER_KEYS.putIfAbsent(key, lower);
+            }
+        }
+        return lower;
+    }
+
+    // Istanza canonica del valore se breve, altrimenti il valore stesso
+    public static String value(String value) {
+        if (value.length() > MAX_INTERNED_VALUE_LENGTH) {
+            return value;
+        }
+        return intern(VALUES, value);
+    }
+
+    // Coppia chiave-valore immutabile, condivisa per i valori brevi
+    public static Map.Entry<String, String> pair(String key, String value) {
+        String canonicalKey = key(key);
+        String canonicalValue = value(value);
+        if (canonicalValue.length() > MAX_INTERNED_VALUE_LENGTH) {
+            return new AbstractMap.SimpleImmutableEntry<>(canonicalKey, canonicalValue);
+        }
+        ConcurrentHashMap<String, Map.Entry<String, String>> byValue = PAIRS.get(canonicalKey);
+        if (byValue == null) {
+            if (PAIRS.size() >= MAX_ENTRIES) {
+                return new AbstractMap.SimpleImmutableEntry<>(canonicalKey, canonicalValue);
+            }
+            byValue = PAIRS.computeIfAbsent(canonicalKey, k -> new ConcurrentHashMap<>());
+        }
+        Map.Entry<String, String> pair = byValue.get(canonicalValue);
+        if (pair == null) {
+            if (byValue.size() >= MAX_ENTRIES) {
+                return new AbstractMap.SimpleImmutableEntry<>(canonicalKey, canonicalValue);
+            }
+            pair = byValue.computeIfAbsent(canonicalValue, v -> new AbstractMap.SimpleImmutableEntry<>(canonicalKey, v));
+        }
+        return pair;
+    }
+
+    private static String intern(ConcurrentHashMap<String, String> pool, String s) {
+        String canonical = pool.get(s);
+        if (canonical != null) {
+            return canonical;
+        }
+        if (pool.size() >= MAX_ENTRIES) {
+            return s;
+        }
+        canonical = pool.putIfAbsent(s, s);
+        return canonical == null ? s : canonical;
+    }
+}
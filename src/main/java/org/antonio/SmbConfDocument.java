@@ -0,0 +1,186 @@
+package org.antonio;
+
+import java.nio.file.Path;
+import java.util.*;
+
+// Modello di smb.conf prodotto da SmbConfParser: conserva il testo originale di ogni sezione
+// (commenti e righe di continuazione compresi) nell'ordine del file, più un indice per nome
+public class SmbConfDocument {
+    public static final int KIND_GLOBAL = 0;
+    public static final int KIND_HOMES = 1;
+    public static final int KIND_SHARE = 2;
+
+    private String preamble; // Testo che precede la prima sezione
+    private final ArrayList<Section> sections;
+    private final HashMap<String, Section> index; // Nome in minuscolo -> prima sezione con quel nome
+    private final ArrayList<Path> includes; // File di condivisione gestiti, richiamati con "include ="
+
+    public SmbConfDocument() {
+        this.preamble = "";
+        this.sections = new ArrayList<>();
+        this.index = new HashMap<>();
+        this.includes = new ArrayList<>();
+    }
+
+    public String getPreamble() {
+        return preamble;
+    }
+
+    void setPreamble(String preamble) {
+        this.preamble = preamble;
+    }
+
+    public List<Section> getSections() {
+        return Collections.unmodifiableList(sections);
+    }
+
+    public Section getSection(String name) {
+        return index.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    // File inclusi nella cartella gestita, nell'ordine del file; le loro righe "include =" non
+    // fanno parte del testo delle sezioni e vengono rigenerate in fondo al file
+    public List<Path> getIncludes() {
+        return Collections.unmodifiableList(includes);
+    }
+
+    void addInclude(Path path) {
+        includes.add(path);
+    }
+
+    void addSection(Section section) {
+        sections.add(section);
+        index.putIfAbsent(section.getName().toLowerCase(Locale.ROOT), section);
+    }
+
+    public static class Section {
+        private final String name;
+        private final int kind;
+        private String text; // Testo originale della sezione, header compreso
+        private final ArrayList<String[]> entries; // Solo per [global] e [homes]
+        private final SmbCondBean share; // Solo per le condivisioni
+
+        Section(String name, int kind, ArrayList<String[]> entries, SmbCondBean share) {
+            this.name = name;
+            this.kind = kind;
+            this.text = "";
+            this.entries = entries;
+            this.share = share;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getKind() {
+            return kind;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        void setText(String text) {
+            this.text = text;
+        }
+
+        public ArrayList<String[]> getEntries() {
+            return entries;
+        }
+
+        public SmbCondBean getShare() {
+            return share;
+        }
+
+        // Riscrive la sezione partendo dal testo originale: i commenti restano al loro posto,
+        // le righe con valore invariato sono copiate così come sono, le chiavi rimosse spariscono
+        // e quelle nuove vengono inserite dopo l'ultima impostazione della sezione.
+        // "emitted" raccoglie le chiavi già scritte per lo stesso oggetto del modello, così che
+        // sezioni duplicate non ripetano le stesse impostazioni.
+        void render(Collection<? extends Map.Entry<String, String>> current, Collection<String> validUsers, Set<String> emitted, StringBuilder out) {
+            HashMap<String, Map.Entry<String, String>> currentByKey = new HashMap<>();
+            for (Map.Entry<String, String> pair : current) {
+                currentByKey.putIfAbsent(SmbConfDictionary.lowerKey(pair.getKey()), pair);
+            }
+
+            ArrayList<String> lines = SmbConfParser.splitLogicalLines(text);
+            int insertAfter = 0;
+            for (int i = 1; i < lines.size(); i++) {
+                if (SmbConfParser.entrySeparator(lines.get(i)) >= 0) {
+                    insertAfter = i;
+                }
+            }
+            String indent = insertAfter == 0 ? "" : indentOf(lines.get(insertAfter));
+
+            for (int i = 0; i < lines.size(); i++) {
+                String raw = lines.get(i);
+                int eq = i == 0 ? -1 : SmbConfParser.entrySeparator(raw);
+                if (eq < 0) {
+                    out.append(raw);
+                } else {
+                    String logical = SmbConfParser.joinContinuations(raw);
+                    int sep = SmbConfParser.entrySeparator(logical);
+                    String key = logical.substring(0, sep).trim();
+                    String originalValue = logical.substring(sep + 1).trim();
+                    String lowerKey = key.toLowerCase(Locale.ROOT);
+
+                    if (!emitted.contains(lowerKey)) {
+                        if (validUsers != null && lowerKey.equals("valid users")) {
+                            if (!validUsers.isEmpty()) {
+                                if (new ArrayList<>(validUsers).equals(SmbConfParser.splitUserList(originalValue))) {
+                                    out.append(raw);
+                                } else {
+                                    appendEntry(out, raw, key, String.join(", ", validUsers));
+                                }
+                            }
+                            emitted.add(lowerKey);
+                        } else {
+                            Map.Entry<String, String> pair = currentByKey.get(lowerKey);
+                            if (pair != null) {
+                                if (pair.getValue().equals(originalValue)) {
+                                    out.append(raw);
+                                } else {
+                                    appendEntry(out, raw, key, pair.getValue());
+                                }
+                                emitted.add(lowerKey);
+                            }
+                        }
+                    }
+                }
+
+                if (i == insertAfter) {
+                    for (Map.Entry<String, String> pair : current) {
+                        if (emitted.add(pair.getKey().toLowerCase(Locale.ROOT))) {
+                            out.append(indent).append(pair.getKey()).append(" = ").append(pair.getValue()).append('\n');
+                        }
+                    }
+                    if (validUsers != null && !validUsers.isEmpty() && emitted.add("valid users")) {
+                        out.append(indent).append("valid users = ").append(String.join(", ", validUsers)).append('\n');
+                    }
+                }
+            }
+        }
+
+        // Impostazioni di [global] e [homes] ({chiave, valore}) nella forma accettata da render()
+        static List<Map.Entry<String, String>> entries(List<String[]> settings) {
+            ArrayList<Map.Entry<String, String>> entries = new ArrayList<>(settings.size());
+            for (String[] setting : settings) {
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(setting[0], setting[1]));
+            }
+            return entries;
+        }
+
+        // Scrive "chiave = valore" mantenendo l'indentazione della riga originale
+        private static void appendEntry(StringBuilder out, String raw, String key, String value) {
+            out.append(indentOf(raw)).append(key).append(" = ").append(value).append('\n');
+        }
+
+        private static String indentOf(String raw) {
+            int indent = 0;
+            while (indent < raw.length() && (raw.charAt(indent) == ' ' || raw.charAt(indent) == '\t')) {
+                indent++;
+            }
+            return raw.substring(0, indent);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package org.antonio;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+// Parser a singola passata di smb.conf, condiviso da SambaManager.loadConfig() e readConfigFromText().
+// Costruisce direttamente il modello (impostazioni e SmbCondBean) e conserva il testo di ogni sezione.
+public final class SmbConfParser {
+
+    private SmbConfParser() {
+    }
+
+    public static SmbConfDocument parse(String text) throws IOException {
+        return parse(new BufferedReader(new StringReader(text)), null);
+    }
+
+    public static SmbConfDocument parse(String text, Path includeDir) throws IOException {
+        return parse(new BufferedReader(new StringReader(text)), includeDir);
+    }
+
+    public static SmbConfDocument parse(BufferedReader reader) throws IOException {
+        return parse(reader, null);
+    }
+
+    // Se includeDir non è null, le righe "include =" che puntano a file in quella cartella vengono
+    // registrate nel documento e tolte dal testo delle sezioni
+    public static SmbConfDocument parse(BufferedReader reader, Path includeDir) throws IOException {
+        SmbConfDocument document = new SmbConfDocument();
+        StringBuilder text = new StringBuilder(); // Testo della sezione corrente
+        StringBuilder continued = null; // Riga logica in costruzione se la precedente termina con '\'
+        SmbConfDocument.Section current = null; // null = preambolo prima della prima sezione
+        ArrayList<String[]> globalEntries = null;
+        ArrayList<String[]> homeEntries = null;
+        HashMap<String, SmbCondBean> sharesByName = new HashMap<>();
+        int logicalMark = 0; // Inizio nel testo della riga logica corrente
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            int start = skipBlanks(line, 0);
+
+            if (continued == null && start < line.length() && line.charAt(start) == '[') {
+                // Chiude la sezione precedente e ne apre una nuova
+                closeSection(document, current, text);
+                int end = line.indexOf(']', start);
+                String name = (end < 0 ? line.substring(start + 1) : line.substring(start + 1, end)).trim();
+                String lowerName = name.toLowerCase(Locale.ROOT);
+
+                if (lowerName.equals("global")) {
+                    if (globalEntries == null) {
+                        globalEntries = new ArrayList<>();
+                    }
+                    current = new SmbConfDocument.Section(name, SmbConfDocument.KIND_GLOBAL, globalEntries, null);
+                } else if (lowerName.equals("homes")) {
+                    if (homeEntries == null) {
+                        homeEntries = new ArrayList<>();
+                    }
+                    current = new SmbConfDocument.Section(name, SmbConfDocument.KIND_HOMES, homeEntries, null);
+                } else {
+                    // Le sezioni duplicate confluiscono nella stessa condivisione, come fa Samba
+                    SmbCondBean share = sharesByName.get(lowerName);
+                    if (share == null) {
+                        share = new SmbCondBean(name);
+                        sharesByName.put(lowerName, share);
+                    }
+                    current = new SmbConfDocument.Section(name, SmbConfDocument.KIND_SHARE, null, share);
+                }
+                text.append(line).append('\n');
+                continue;
+            }
+
+            if (continued == null) {
+                logicalMark = text.length();
+            }
+            text.append(line).append('\n');
+
+            if (continued == null && (start == line.length() || line.charAt(start) == '#' || line.charAt(start) == ';')) {
+                continue; // Riga vuota o commento
+            }
+
+            int end = line.length();
+            while (end > start && Character.isWhitespace(line.charAt(end - 1))) {
+                end--;
+            }
+            if (end > start && line.charAt(end - 1) == '\\') {
+                if (continued == null) {
+                    continued = new StringBuilder();
+                }
+                continued.append(line, start, end - 1);
+                continue;
+            }
+
+            String logical;
+            if (continued != null) {
+                logical = continued.append(line, start, end).toString();
+                continued = null;
+            } else {
+                logical = line;
+            }
+
+            Path include = includeDir == null ? null : managedInclude(logical, includeDir);
+            if (include != null) {
+                document.addInclude(include);
+                text.setLength(logicalMark);
+            } else if (current != null) {
+                addEntry(current, logical);
+            }
+        }
+
+        if (continued != null && current != null) {
+            addEntry(current, continued.toString());
+        }
+        closeSection(document, current, text);
+
+        // Appena lette, le condivisioni coincidono con il testo del file
+        for (SmbCondBean share : sharesByName.values()) {
+            share.markClean();
+        }
+        return document;
+    }
+
+    // Percorso del file se la riga è un "include =" verso la cartella gestita, altrimenti null
+    private static Path managedInclude(String logical, Path includeDir) {
+        int eq = logical.indexOf('=');
+        if (eq < 0 || !logical.substring(0, eq).trim().equalsIgnoreCase("include")) {
+            return null;
+        }
+        String value = logical.substring(eq + 1).trim();
+        if (value.isEmpty() || value.indexOf('%') >= 0) {
+            return null; // Le macro di Samba dipendono dal client e non sono gestibili qui
+        }
+        Path path = Paths.get(value).normalize();
+        return includeDir.equals(path.getParent()) ? path : null;
+    }
+
+    private static void closeSection(SmbConfDocument document, SmbConfDocument.Section section, StringBuilder text) {
+        if (section == null) {
+            document.setPreamble(text.toString());
+        } else {
+            section.setText(text.toString());
+            document.addSection(section);
+        }
+        text.setLength(0);
+    }
+
+    private static void addEntry(SmbConfDocument.Section section, String logical) {
+        int eq = logical.indexOf('=');
+        if (eq < 0) {
+            return;
+        }
+        int keyStart = skipBlanks(logical, 0);
+        int keyEnd = trimEnd(logical, eq);
+        if (keyEnd <= keyStart) {
+            return;
+        }
+        int valueStart = skipBlanks(logical, eq + 1);
+        String key = logical.substring(keyStart, keyEnd);
+        String value = logical.substring(valueStart, Math.max(valueStart, trimEnd(logical, logical.length())));
+
+        if (section.getKind() != SmbConfDocument.KIND_SHARE) {
+            section.getEntries().add(new String[]{SmbConfDictionary.key(key), SmbConfDictionary.value(value)});
+        } else if (key.equalsIgnoreCase("valid users")) {
+            for (String user : splitUserList(value)) {
+                section.getShare().addValidUser(user);
+            }
+        } else {
+            section.getShare().addProperty(key, value);
+        }
+    }
+
+    // Divide una lista di utenti separata da virgole, ignorando gli elementi vuoti
+    static ArrayList<String> splitUserList(String value) {
+        ArrayList<String> users = new ArrayList<>();
+        int start = 0;
+        while (start <= value.length()) {
+            int comma = value.indexOf(',', start);
+            if (comma < 0) {
+                comma = value.length();
+            }
+            int from = skipBlanks(value, start);
+            int to = trimEnd(value, comma);
+            if (to > from) {
+                users.add(value.substring(from, to));
+            }
+            start = comma + 1;
+        }
+        return users;
+    }
+
+    // Divide il testo di una sezione in righe logiche (terminate da '\n'), unendo le continuazioni
+    static ArrayList<String> splitLogicalLines(String text) {
+        ArrayList<String> lines = new ArrayList<>();
+        int lineStart = 0;
+        int pos = 0;
+        while (pos < text.length()) {
+            int nl = text.indexOf('\n', pos);
+            if (nl < 0) {
+                nl = text.length() - 1;
+            }
+            int first = skipBlanks(text, lineStart);
+            boolean comment = first < text.length() && (text.charAt(first) == '#' || text.charAt(first) == ';');
+            int end = trimEnd(text, nl);
+            if (!comment && end > pos && text.charAt(end - 1) == '\\' && nl + 1 < text.length()) {
+                pos = nl + 1; // La riga prosegue nella successiva
+                continue;
+            }
+            lines.add(text.substring(lineStart, nl + 1));
+            lineStart = nl + 1;
+            pos = lineStart;
+        }
+        return lines;
+    }
+
+    // Restituisce la riga logica senza i caratteri di continuazione e senza il '\n' finale
+    static String joinContinuations(String raw) {
+        if (raw.indexOf('\\') < 0) {
+            return raw.endsWith("\n") ? raw.substring(0, raw.length() - 1) : raw;
+        }
+        StringBuilder builder = new StringBuilder(raw.length());
+        boolean first = true;
+        for (String part : raw.split("\n")) {
+            // Come nel parser, le righe di continuazione perdono gli spazi iniziali
+            int start = first ? 0 : skipBlanks(part, 0);
+            int end = trimEnd(part, part.length());
+            if (end > start && part.charAt(end - 1) == '\\') {
+                builder.append(part, start, end - 1);
+            } else if (end > start) {
+                builder.append(part, start, end);
+            }
+            first = false;
+        }
+        return builder.toString();
+    }
+
+    // Indice del carattere '=' se la riga è un'impostazione, -1 per righe vuote, commenti e header
+    static int entrySeparator(String line) {
+        int start = skipBlanks(line, 0);
+        if (start == line.length()) {
+            return -1;
+        }
+        char first = line.charAt(start);
+        if (first == '#' || first == ';' || first == '[') {
+            return -1;
+        }
+        return line.indexOf('=');
+    }
+
+    private static int skipBlanks(String s, int from) {
+        while (from < s.length() && Character.isWhitespace(s.charAt(from))) {
+            from++;
+        }
+        return from;
+    }
+
+    private static int trimEnd(String s, int end) {
+        while (end > 0 && Character.isWhitespace(s.charAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+}
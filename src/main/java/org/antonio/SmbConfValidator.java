@@ -0,0 +1,400 @@
+package org.antonio;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+// Controllo di smb.conf dentro la JVM, al posto di un giro di testparm prima di ogni riavvio.
+// Verifica le sezioni, i nomi dei parametri noti, il tipo dei valori e i duplicati. Sono errori
+// (e bloccano il salvataggio) solo i casi per cui Samba rifiuta il file e smbd non parte: header
+// malformati e valori non validi per parametri booleani, numerici o ottali. Il resto, che Samba
+// ignora con un messaggio nel log, è segnalato come avviso; così anche i valori sconosciuti dei
+// parametri a scelta, perché l'elenco qui non è generato dalla tabella dei parametri di Samba.
+// Il risultato di ogni sezione è conservato in base al suo testo, quindi durante la modifica
+// nell'editor vengono ricontrollate solo le sezioni cambiate.
+public class SmbConfValidator {
+
+    public enum Severity {ERROR, WARNING}
+
+    private enum Type {BOOLEAN, INTEGER, OCTAL, ENUM, STRING}
+
+    // Parametro noto: tipo del valore, valori ammessi per ENUM, e se vale solo in [global]
+    private static final class Parameter {
+        final Type type;
+        final boolean globalOnly;
+        final Set<String> choices;
+
+        Parameter(Type type, boolean globalOnly, String... choices) {
+            this.type = type;
+            this.globalOnly = globalOnly;
+            this.choices = new HashSet<>(Arrays.asList(choices));
+        }
+    }
+
+    private static final HashMap<String, Parameter> PARAMETERS = new HashMap<>();
+    private static final Pattern INTEGER = Pattern.compile("-?\\d+");
+    private static final Pattern OCTAL = Pattern.compile("[0-7]{1,5}");
+    private static final Pattern BLANKS = Pattern.compile("\\s+");
+    private static final Set<String> BOOLEAN_VALUES = new HashSet<>(Arrays.asList("yes", "no", "true", "false", "1", "0", "on", "off"));
+    private static final String[] PROTOCOLS = {
+            "core", "coreplus", "lanman1", "lanman2", "nt1", "smb2", "smb2_02", "smb2_10", "smb2_22", "smb2_24",
+            "smb3", "smb3_00", "smb3_02", "smb3_10", "smb3_11", "default"
+    };
+
+    static {
+        global(Type.STRING, "workgroup", "realm", "netbios name", "netbios aliases", "server string", "passdb backend",
+                "log file", "log level", "debuglevel", "logging", "interfaces", "passwd program", "passwd chat",
+                "panic action", "usershare path", "usershare prefix allow list", "usershare prefix deny list",
+                "usershare template share", "printcap name", "wins server", "name resolve order", "template shell",
+                "template homedir", "winbind separator", "guest account", "username map", "smb ports",
+                "socket options", "server signing", "client signing", "ntlm auth", "kerberos method",
+                "dedicated keytab file", "dns forwarder", "server services", "add user script", "delete user script",
+                "add group script", "add machine script", "unix charset", "dos charset", "domain master",
+                "preferred master", "server schannel", "idmap backend", "idmap uid", "idmap gid", "lock directory",
+                "state directory", "cache directory", "private dir", "pid directory", "ncalrpc dir", "smb passwd file",
+                "mangling method", "auth methods");
+        global(Type.BOOLEAN, "syslog only", "bind interfaces only", "obey pam restrictions", "unix password sync",
+                "pam password change", "usershare allow guests", "usershare owner only", "load printers",
+                "disable spoolss", "wins support", "dns proxy", "local master", "winbind enum users",
+                "winbind enum groups", "winbind use default domain", "encrypt passwords", "null passwords",
+                "lanman auth", "client lanman auth", "client plaintext auth", "allow trusted domains",
+                "unix extensions", "allow insecure wide links", "multicast dns register", "host msdfs",
+                "time server", "server multi channel support", "disable netbios", "debug timestamp", "debug pid",
+                "debug uid", "debug hires timestamp", "winbind offline logon", "winbind nested groups",
+                "client use spnego", "use mmap", "nt pipe support", "nt status support", "enable core files");
+        global(Type.INTEGER, "max log size", "syslog", "usershare max shares", "os level", "deadtime",
+                "restrict anonymous", "min receivefile size", "max open files", "max smbd processes",
+                "keepalive", "max xmit", "max mux", "getwd cache", "winbind cache time", "passwd chat timeout",
+                "machine password timeout", "lpq cache time", "name cache timeout", "max disk size");
+        // Tutti i sinonimi di enum_server_role in lib/param/param_table.c
+        globalChoice("server role", "auto", "standalone server", "standalone", "member server", "member",
+                "classic primary domain controller", "classic backup domain controller",
+                "active directory domain controller", "domain controller", "dc",
+                "ipa primary domain controller", "ipa dc");
+        globalChoice("security", "auto", "user", "domain", "ads");
+        globalChoice("map to guest", "never", "bad user", "bad password", "bad uid");
+        globalChoice("printing", "bsd", "aix", "lprng", "plp", "sysv", "hpux", "qnx", "cups", "iprint");
+        for (String protocol : new String[]{"server min protocol", "server max protocol", "client min protocol",
+                "client max protocol", "min protocol", "max protocol", "protocol"}) {
+            globalChoice(protocol, PROTOCOLS);
+        }
+
+        share(Type.STRING, "path", "directory", "comment", "force user", "force group", "group", "valid users",
+                "invalid users", "write list", "read list", "admin users", "hide files", "veto files",
+                "vfs objects", "vfs object", "copy", "include", "allow hosts", "deny hosts", "volume",
+                "root preexec", "root postexec", "preexec", "exec", "postexec", "printer name", "printer",
+                "print command", "lpq command", "lprm command", "msdfs proxy", "smb encrypt", "map readonly",
+                "inherit owner", "strict locking", "case sensitive", "casesignames", "csc policy", "mangled names",
+                "dont descend", "magic script", "magic output", "veto oplock files", "hosts allow", "hosts deny");
+        share(Type.BOOLEAN, "browsable", "browseable", "writable", "writeable", "write ok", "read only", "guest ok",
+                "public", "guest only", "only guest", "available", "printable", "print ok", "hide dot files",
+                "delete veto files", "hide unreadable", "hide unwriteable files", "hide special files",
+                "inherit permissions", "inherit acls", "store dos attributes", "map archive", "map hidden",
+                "map system", "ea support", "oplocks", "level2 oplocks", "kernel oplocks", "locking",
+                "posix locking", "preserve case", "short preserve case", "nt acl support",
+                "acl allow execute always", "dos filemode", "dos filetimes", "fake oplocks", "spotlight",
+                "durable handles", "access based share enum", "wide links", "use sendfile", "administrative share",
+                "strict allocate", "strict sync", "sync always", "force unknown acl user", "follow symlinks",
+                "msdfs root", "acl map full control", "acl group control", "map acl inherit");
+        share(Type.INTEGER, "max connections", "write cache size", "block size", "max print jobs",
+                "min print space", "max reported print jobs", "aio read size", "aio write size");
+        share(Type.OCTAL, "create mask", "create mode", "directory mask", "directory mode", "force create mode",
+                "force directory mode", "force security mode", "force directory security mode");
+        shareChoice("default case", "upper", "lower");
+    }
+
+    private static void global(Type type, String... names) {
+        for (String name : names) {
+            PARAMETERS.put(name, new Parameter(type, true));
+        }
+    }
+
+    private static void globalChoice(String name, String... choices) {
+        PARAMETERS.put(name, new Parameter(Type.ENUM, true, choices));
+    }
+
+    private static void share(Type type, String... names) {
+        for (String name : names) {
+            PARAMETERS.put(name, new Parameter(type, false));
+        }
+    }
+
+    private static void shareChoice(String name, String... choices) {
+        PARAMETERS.put(name, new Parameter(Type.ENUM, false, choices));
+    }
+
+    public static final class Issue {
+        private final int line;
+        private final Severity severity;
+        private final String message;
+
+        Issue(int line, Severity severity, String message) {
+            this.line = line;
+            this.severity = severity;
+            this.message = message;
+        }
+
+        public int getLine() {
+            return line;
+        }
+
+        public Severity getSeverity() {
+            return severity;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return "riga " + line + ": " + message;
+        }
+    }
+
+    // Esito del controllo di una sezione, con righe relative all'inizio della sezione
+    private static final class SectionCheck {
+        String name; // null per il testo prima della prima sezione
+        final ArrayList<Issue> issues = new ArrayList<>();
+        String copyOf;
+        int copyLine;
+    }
+
+    private HashMap<String, SectionCheck> cache = new HashMap<>(); // Testo della sezione -> esito
+    private int lastChecked; // Sezioni ricontrollate nell'ultima chiamata
+
+    // Controlla il testo di smb.conf. "externalSections" sono le sezioni definite altrove (file
+    // inclusi, usershare), valide come destinazione di "copy =".
+    public synchronized List<Issue> validate(String text, Collection<String> externalSections) {
+        HashMap<String, SectionCheck> nextCache = new HashMap<>();
+        ArrayList<Issue> issues = new ArrayList<>();
+        HashMap<String, Integer> firstLines = new HashMap<>(); // Nome in minuscolo -> riga del primo header
+        HashSet<String> external = new HashSet<>();
+        for (String name : externalSections) {
+            external.add(name.toLowerCase(Locale.ROOT));
+        }
+        lastChecked = 0;
+
+        int lineNumber = 1;
+        int start = 0;
+        while (start < text.length() || start == 0) {
+            int end = sectionEnd(text, start);
+            String sectionText = text.substring(start, end);
+            SectionCheck check = nextCache.get(sectionText);
+            if (check == null) {
+                check = cache.get(sectionText);
+                if (check == null) {
+                    check = checkSection(sectionText);
+                    lastChecked++;
+                }
+                nextCache.put(sectionText, check);
+            }
+
+            for (Issue issue : check.issues) {
+                issues.add(new Issue(lineNumber + issue.line, issue.severity, issue.message));
+            }
+            if (check.name != null) {
+                String lower = check.name.toLowerCase(Locale.ROOT);
+                Integer first = firstLines.get(lower);
+                if (first != null) {
+                    issues.add(new Issue(lineNumber, Severity.WARNING, "Sezione [" + check.name
+                            + "] già definita alla riga " + first + ": le impostazioni verranno unite"));
+                } else if (external.contains(lower)) {
+                    issues.add(new Issue(lineNumber, Severity.WARNING, "Sezione [" + check.name
+                            + "] già definita in un file incluso o come usershare"));
+                }
+                if (check.copyOf != null) {
+                    String target = check.copyOf.toLowerCase(Locale.ROOT);
+                    if (target.equals(lower)) {
+                        issues.add(new Issue(lineNumber + check.copyLine, Severity.WARNING, "La sezione copia se stessa"));
+                    } else if (!firstLines.containsKey(target) && !external.contains(target)) {
+                        issues.add(new Issue(lineNumber + check.copyLine, Severity.WARNING,
+                                "copy: la sezione [" + check.copyOf + "] non è definita prima di questa"));
+                    }
+                }
+                firstLines.putIfAbsent(lower, lineNumber);
+            }
+
+            lineNumber += countLines(sectionText);
+            if (end == start) {
+                break; // Testo vuoto
+            }
+            start = end;
+        }
+
+        cache = nextCache; // Restano solo le sezioni ancora presenti
+        issues.sort(Comparator.comparingInt(Issue::getLine));
+        return issues;
+    }
+
+    public synchronized int getLastCheckedSections() {
+        return lastChecked;
+    }
+
+    public static boolean hasErrors(List<Issue> issues) {
+        for (Issue issue : issues) {
+            if (issue.getSeverity() == Severity.ERROR) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Fine della sezione che inizia in "start": il prossimo header non preceduto da una continuazione
+    private static int sectionEnd(String text, int start) {
+        int pos = start;
+        boolean continued = false;
+        boolean first = true;
+        while (pos < text.length()) {
+            int nl = text.indexOf('\n', pos);
+            int lineEnd = nl < 0 ? text.length() : nl;
+            int lineStart = skipBlanks(text, pos, lineEnd);
+            if (!first && !continued && lineStart < lineEnd && text.charAt(lineStart) == '[') {
+                return pos;
+            }
+            boolean comment = lineStart < lineEnd && (text.charAt(lineStart) == '#' || text.charAt(lineStart) == ';');
+            int last = lineEnd;
+            while (last > lineStart && Character.isWhitespace(text.charAt(last - 1))) {
+                last--;
+            }
+            continued = !comment && last > lineStart && text.charAt(last - 1) == '\\';
+            first = false;
+            pos = nl < 0 ? text.length() : nl + 1;
+        }
+        return text.length();
+    }
+
+    private static SectionCheck checkSection(String sectionText) {
+        SectionCheck check = new SectionCheck();
+        boolean global = false;
+        HashMap<String, Integer> seenKeys = new HashMap<>();
+        String[] lines = sectionText.split("\n", -1);
+        StringBuilder continued = null;
+        int logicalStart = 0;
+
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i];
+            String trimmed = line.trim();
+            if (continued == null) {
+                logicalStart = i;
+                if (trimmed.isEmpty() || trimmed.startsWith("#") || trimmed.startsWith(";")) {
+                    continue;
+                }
+                if (trimmed.startsWith("[")) {
+                    int close = trimmed.indexOf(']');
+                    if (close < 0) {
+                        check.issues.add(new Issue(i, Severity.ERROR, "Header di sezione senza ']'"));
+                        check.name = trimmed.substring(1).trim();
+                    } else {
+                        check.name = trimmed.substring(1, close).trim();
+                        if (check.name.isEmpty()) {
+                            check.issues.add(new Issue(i, Severity.ERROR, "Nome di sezione vuoto"));
+                        }
+                    }
+                    global = check.name.equalsIgnoreCase("global");
+                    continue;
+                }
+            }
+
+            if (trimmed.endsWith("\\")) {
+                if (continued == null) {
+                    continued = new StringBuilder();
+                }
+                continued.append(trimmed, 0, trimmed.length() - 1);
+                if (i < lines.length - 1) {
+                    continue;
+                }
+                trimmed = "";
+            }
+            String logical = continued != null ? continued.append(trimmed).toString() : trimmed;
+            continued = null;
+            checkEntry(check, logical, logicalStart, global, seenKeys);
+        }
+        return check;
+    }
+
+    private static void checkEntry(SectionCheck check, String logical, int line, boolean global, HashMap<String, Integer> seenKeys) {
+        int eq = logical.indexOf('=');
+        if (eq < 0) {
+            check.issues.add(new Issue(line, Severity.WARNING, "Riga non valida, verrà ignorata: " + logical));
+            return;
+        }
+        String key = BLANKS.matcher(logical.substring(0, eq).trim()).replaceAll(" ");
+        String value = logical.substring(eq + 1).trim();
+        String lowerKey = key.toLowerCase(Locale.ROOT);
+        if (key.isEmpty()) {
+            check.issues.add(new Issue(line, Severity.WARNING, "Parametro senza nome, verrà ignorato"));
+            return;
+        }
+        if (check.name == null) {
+            check.issues.add(new Issue(line, Severity.WARNING, "Parametro fuori da ogni sezione: " + key));
+        }
+
+        Integer previous = seenKeys.putIfAbsent(lowerKey, line);
+        if (previous != null && !lowerKey.equals("include")) {
+            check.issues.add(new Issue(line, Severity.WARNING, "Parametro \"" + key + "\" ripetuto nella sezione: vale l'ultimo"));
+        }
+        if (lowerKey.equals("copy")) {
+            check.copyOf = value;
+            check.copyLine = line;
+        }
+
+        if (lowerKey.indexOf(':') >= 0) {
+            return; // Opzioni parametriche dei moduli (es. "fruit:metadata"): non verificabili qui
+        }
+        Parameter parameter = PARAMETERS.get(lowerKey);
+        if (parameter == null) {
+            check.issues.add(new Issue(line, Severity.WARNING, "Parametro sconosciuto: " + key));
+            return;
+        }
+        if (parameter.globalOnly && !global && check.name != null) {
+            check.issues.add(new Issue(line, Severity.WARNING, "\"" + key + "\" è valido solo in [global] e verrà ignorato"));
+        }
+        if (value.indexOf('%') >= 0) {
+            return; // Le macro vengono espanse da Samba alla connessione
+        }
+
+        String lowerValue = value.toLowerCase(Locale.ROOT);
+        switch (parameter.type) {
+            case BOOLEAN:
+                if (!BOOLEAN_VALUES.contains(lowerValue)) {
+                    check.issues.add(new Issue(line, Severity.ERROR, "\"" + key + "\" richiede yes o no, trovato: " + value));
+                }
+                break;
+            case INTEGER:
+                if (!INTEGER.matcher(value).matches()) {
+                    check.issues.add(new Issue(line, Severity.ERROR, "\"" + key + "\" richiede un numero intero, trovato: " + value));
+                }
+                break;
+            case OCTAL:
+                if (!OCTAL.matcher(value).matches()) {
+                    check.issues.add(new Issue(line, Severity.ERROR, "\"" + key + "\" richiede un valore ottale (es. 0664), trovato: " + value));
+                }
+                break;
+            case ENUM:
+                // Solo avviso: l'elenco dei valori è scritto a mano e Samba può accettarne altri
+                if (!parameter.choices.contains(lowerValue)) {
+                    check.issues.add(new Issue(line, Severity.WARNING, "Valore non riconosciuto per \"" + key + "\": " + value));
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static int countLines(String text) {
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int skipBlanks(String s, int from, int end) {
+        while (from < end && Character.isWhitespace(s.charAt(from))) {
+            from++;
+        }
+        return from;
+    }
+}
@@ -10,12 +10,21 @@ import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.UserPrincipalLookupService;
 import java.nio.file.attribute.GroupPrincipal;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 public class UsersManager {
+    private static final long USERDEL_TIMEOUT_MILLIS = 600_000; // "userdel -r" cancella anche la home
+
     private ArrayList<UserBean> users;
     private SambaManager sambaManager;
     private FtpManager ftpManager;
@@ -46,6 +55,17 @@ public class UsersManager {
         }
     }
 
+    // Esegue un comando tramite CommandExecutor; in caso di errore il messaggio include lo stderr del comando
+    private void runCommand(List<String> command, String input, long timeoutMillis, String errorMessage) throws IOException {
+        try {
+            CommandExecutor.Result result = CommandExecutor.getDefault().runChecked(command, input, timeoutMillis, errorMessage);
+            printDebug("Comando completato in " + result.getDurationMillis() + " ms: " + String.join(" ", command));
+        } catch (IOException e) {
+            printDebug(e.getMessage());
+            throw e;
+        }
+    }
+
     // Carica la lista degli utenti dal sistema e imposta i permessi FTP e Samba
     private void loadUsers() throws IOException {
         printDebug("Inizio caricamento degli utenti dal file /etc/passwd.");
@@ -56,6 +76,10 @@ public class UsersManager {
         List<String> passwdLines = Files.readAllLines(Paths.get("/etc/passwd"));
         printDebug("Numero di righe lette da /etc/passwd: " + passwdLines.size());
 
+        // Elenchi letti una sola volta: le verifiche per utente sono ricerche in un insieme
+        Set<String> sambaUsers = sambaManager.getSambaUsers();
+        Set<String> ftpUsers = new HashSet<>(ftpManager.getFtpUsers());
+
         for (String line : passwdLines) {
             String[] parts = line.split(":");
             if (parts.length > 6) { // Controlla che ci siano abbastanza campi
@@ -66,8 +90,8 @@ public class UsersManager {
                 // Include solo utenti con shell valida per il login
                 if (!shell.equals("/usr/sbin/nologin") && !shell.equals("/bin/false")) {
                     printDebug("Utente valido per il login: " + username);
-                    boolean sambaEnabled = sambaManager.getSambaUsers().contains(username);
-                    boolean ftpEnabled = ftpManager.getFtpUsers().contains(username);
+                    boolean sambaEnabled = sambaUsers.contains(username);
+                    boolean ftpEnabled = ftpUsers.contains(username);
 
                     printDebug("Permessi Samba per " + username + ": " + sambaEnabled);
                     printDebug("Permessi FTP per " + username + ": " + ftpEnabled);
@@ -102,123 +126,157 @@ public class UsersManager {
 
     // Aggiunge un nuovo utente al sistema, abilitandolo opzionalmente a FTP e Samba
     public void addUser(String username, String password, boolean enableFtp, boolean enableSamba) throws IOException {
+        addUser(username, password, enableFtp, enableSamba, debugProgress());
+    }
+
+    // I passi indipendenti vengono eseguiti in parallelo: gli hash si calcolano mentre useradd crea
+    // l'account e, una volta creato, gruppo, password, Samba e lista FTP procedono insieme
+    public void addUser(String username, String password, boolean enableFtp, boolean enableSamba,
+                        JobGraph.ProgressListener listener) throws IOException {
         printDebug("Inizio aggiunta dell'utente al sistema: " + username);
 
         // Nome del gruppo condiviso
         String sharedGroupName = "shareGroup";
+        AtomicReference<LinkedHashMap<String, PasswordHasher.Hashes>> hashes = new AtomicReference<>();
+        JobGraph job = new JobGraph("aggiunta dell'utente " + username);
 
         // Aggiunge l'utente al sistema
-        ProcessBuilder pb = new ProcessBuilder("useradd", "-m", username);
-        printDebug("Esecuzione del comando per aggiungere l'utente: " + String.join(" ", pb.command()));
-        Process process = pb.start();
-        try {
-            if (process.waitFor() != 0) {
-                printDebug("Errore durante l'aggiunta dell'utente " + username);
-                throw new IOException("Errore durante l'aggiunta dell'utente " + username);
-            }
-            printDebug("Utente aggiunto con successo: " + username);
-        } catch (InterruptedException e) {
-            printDebug("Comando interrotto durante l'aggiunta dell'utente: " + username);
-            Thread.currentThread().interrupt();
-            throw new IOException("Errore durante l'aggiunta dell'utente " + username, e);
-        }
+        job.addStep("account", "Creazione dell'utente " + username, () -> {
+            List<String> command = Arrays.asList("useradd", "-m", username);
+            printDebug("Esecuzione del comando per aggiungere l'utente: " + String.join(" ", command));
+            runCommand(command, null, CommandExecutor.DEFAULT_TIMEOUT_MILLIS, "Errore durante l'aggiunta dell'utente " + username);
+        }, EnumSet.of(JobGraph.Resource.ACCOUNTS));
+
+        job.addStep("hash", "Calcolo degli hash della password",
+                () -> hashes.set(hashPasswords(Collections.singletonMap(username, password))),
+                EnumSet.noneOf(JobGraph.Resource.class));
 
         // Aggiunge l'utente al gruppo condiviso
-        printDebug("Aggiunta dell'utente " + username + " al gruppo condiviso " + sharedGroupName);
-        ProcessBuilder groupAddPb = new ProcessBuilder("usermod", "-aG", sharedGroupName, username);
-        printDebug("Esecuzione del comando per aggiungere l'utente al gruppo: " + String.join(" ", groupAddPb.command()));
-        Process groupAddProcess = groupAddPb.start();
-        try {
-            if (groupAddProcess.waitFor() != 0) {
-                printDebug("Errore durante l'aggiunta dell'utente " + username + " al gruppo " + sharedGroupName);
-                throw new IOException("Errore durante l'aggiunta dell'utente " + username + " al gruppo " + sharedGroupName);
-            }
-            printDebug("Utente aggiunto con successo al gruppo condiviso: " + sharedGroupName);
-        } catch (InterruptedException e) {
-            printDebug("Comando interrotto durante l'aggiunta dell'utente al gruppo: " + username);
-            Thread.currentThread().interrupt();
-            throw new IOException("Errore durante l'aggiunta dell'utente " + username + " al gruppo " + sharedGroupName, e);
-        }
+        job.addStep("group", "Aggiunta di " + username + " al gruppo " + sharedGroupName, () -> {
+            List<String> groupAddCommand = Arrays.asList("usermod", "-aG", sharedGroupName, username);
+            printDebug("Esecuzione del comando per aggiungere l'utente al gruppo: " + String.join(" ", groupAddCommand));
+            runCommand(groupAddCommand, null, CommandExecutor.DEFAULT_TIMEOUT_MILLIS,
+                    "Errore durante l'aggiunta dell'utente " + username + " al gruppo " + sharedGroupName);
+        }, EnumSet.of(JobGraph.Resource.ACCOUNTS), "account");
 
-        // Imposta la password
-        printDebug("Impostazione della password per l'utente: " + username);
-        setPassword(username, password);
-        printDebug("Password impostata con successo per l'utente: " + username);
+        job.addStep("password", "Impostazione della password di " + username,
+                () -> applyCryptHashes(hashes.get()), EnumSet.of(JobGraph.Resource.ACCOUNTS), "account", "hash");
 
-        // Abilita Samba e FTP se richiesto
+        ArrayList<String> beforeReload = new ArrayList<>(Arrays.asList("group", "password"));
         if (enableSamba) {
-            printDebug("Abilitazione Samba per l'utente: " + username);
-            sambaManager.addSambaUser(username, password);
-            printDebug("Utente abilitato a Samba: " + username);
+            job.addStep("samba", "Abilitazione Samba di " + username,
+                    () -> applySambaHashes(hashes.get()), EnumSet.of(JobGraph.Resource.PASSDB), "account", "hash");
+            beforeReload.add("samba");
         }
         if (enableFtp) {
-            printDebug("Abilitazione FTP per l'utente: " + username);
-            ftpManager.addFtpUser(username);
-            printDebug("Utente abilitato a FTP: " + username);
+            job.addStep("ftp", "Abilitazione FTP di " + username,
+                    () -> ftpManager.addFtpUser(username), EnumSet.of(JobGraph.Resource.FTP_USERLIST), "account");
+            beforeReload.add("ftp");
         }
 
-        printDebug("Ricaricamento della lista utenti.");
-        loadUsers(); // Ricarica la lista utenti
-        printDebug("Lista utenti ricaricata con successo.");
+        job.addStep("reload", "Ricaricamento della lista utenti", this::loadUsers,
+                EnumSet.noneOf(JobGraph.Resource.class), beforeReload.toArray(new String[0]));
+
+        try {
+            job.run(listener);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Aggiunta dell'utente " + username + " interrotta", e);
+        }
+        printDebug("Utente aggiunto con successo: " + username);
     }
 
-    // Imposta la password di un utente
-    private void setPassword(String username, String password) throws IOException {
-        printDebug("Inizio impostazione della password per l'utente: " + username);
-        ProcessBuilder pb = new ProcessBuilder("chpasswd");
-        printDebug("Esecuzione del comando per impostare la password: " + String.join(" ", pb.command()));
-        Process process = pb.start();
-        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()))) {
-            writer.write(username + ":" + password);
-            writer.newLine();
-            writer.flush();
-            printDebug("Password inviata al comando chpasswd per l'utente: " + username);
+    // Imposta le password di uno o più utenti: gli hash SHA-512 (e NT per Samba) vengono calcolati in
+    // parallelo nella JVM e passati tutti insieme a un solo "chpasswd -e", senza password in chiaro
+    public void setPasswords(Map<String, String> passwords, boolean enableSamba) throws IOException {
+        LinkedHashMap<String, PasswordHasher.Hashes> hashes = hashPasswords(passwords);
+        applyCryptHashes(hashes);
+        if (enableSamba) {
+            applySambaHashes(hashes);
         }
+    }
+
+    private LinkedHashMap<String, PasswordHasher.Hashes> hashPasswords(Map<String, String> passwords) throws IOException {
+        printDebug("Calcolo degli hash per " + passwords.size() + " utenti.");
         try {
-            if (process.waitFor() != 0) {
-                printDebug("Errore durante l'impostazione della password per l'utente: " + username);
-                throw new IOException("Errore durante l'impostazione della password per l'utente " + username);
-            }
-            printDebug("Password impostata con successo per l'utente: " + username);
+            return PasswordHasher.hashAll(passwords);
         } catch (InterruptedException e) {
-            printDebug("Comando interrotto durante l'impostazione della password per l'utente: " + username);
             Thread.currentThread().interrupt();
-            throw new IOException("Errore durante l'impostazione della password per l'utente " + username, e);
+            throw new IOException("Calcolo degli hash delle password interrotto", e);
         }
     }
 
+    private void applyCryptHashes(Map<String, PasswordHasher.Hashes> hashes) throws IOException {
+        List<String> command = Arrays.asList("chpasswd", "-e");
+        printDebug("Esecuzione del comando per impostare le password: " + String.join(" ", command));
+        StringBuilder input = new StringBuilder();
+        for (Map.Entry<String, PasswordHasher.Hashes> entry : hashes.entrySet()) {
+            input.append(entry.getKey()).append(':').append(entry.getValue().getCryptHash()).append('\n');
+        }
+        runCommand(command, input.toString(), CommandExecutor.DEFAULT_TIMEOUT_MILLIS,
+                "Errore durante l'impostazione della password per " + String.join(", ", hashes.keySet()));
+        printDebug("Password impostate con successo: " + hashes.keySet());
+    }
+
+    private void applySambaHashes(Map<String, PasswordHasher.Hashes> hashes) throws IOException {
+        LinkedHashMap<String, String> ntHashes = new LinkedHashMap<>();
+        for (Map.Entry<String, PasswordHasher.Hashes> entry : hashes.entrySet()) {
+            ntHashes.put(entry.getKey(), entry.getValue().getNtHash());
+        }
+        sambaManager.addSambaUsersWithHashes(ntHashes);
+        for (UserBean user : users) {
+            if (ntHashes.containsKey(user.getUsername())) {
+                user.setSambaEnabled(true);
+            }
+        }
+        printDebug("Utenti abilitati a Samba: " + ntHashes.keySet());
+    }
+
     // Rimuove un utente dal sistema e disabilita Samba e FTP
     public void removeUser(String username) throws IOException, InterruptedException {
+        removeUser(username, debugProgress());
+    }
+
+    // Samba e FTP vengono ripuliti in parallelo; l'account viene eliminato solo dopo entrambi, perché
+    // "userdel -r" cancella la home che può essere ancora montata nelle condivisioni FTP
+    public void removeUser(String username, JobGraph.ProgressListener listener) throws IOException, InterruptedException {
         printDebug("Inizio rimozione dell'utente dal sistema: " + username);
+        JobGraph job = new JobGraph("rimozione dell'utente " + username);
 
         // Rimuovi le condivisioni e disabilita gli accessi
-        printDebug("Rimozione dell'utente da Samba.");
-        sambaManager.removeSambaUser(username);
-        printDebug("Utente rimosso da Samba: " + username);
-
-        printDebug("Rimozione dell'utente da FTP.");
-        ftpManager.removeFtpUser(username);
-        printDebug("Utente rimosso da FTP: " + username);
+        job.addStep("samba", "Rimozione di " + username + " da Samba", () -> sambaManager.removeSambaUser(username),
+                EnumSet.of(JobGraph.Resource.SMB_CONF, JobGraph.Resource.PASSDB));
+        job.addStep("ftp", "Rimozione di " + username + " da FTP", () -> ftpManager.removeFtpUser(username),
+                EnumSet.of(JobGraph.Resource.FSTAB, JobGraph.Resource.FTP_USERLIST));
 
         // Elimina l'utente dal sistema
-        ProcessBuilder pb = new ProcessBuilder("userdel", "-r", username);
-        printDebug("Esecuzione del comando per rimuovere l'utente: " + String.join(" ", pb.command()));
-        Process process = pb.start();
-        try {
-            if (process.waitFor() != 0) {
-                printDebug("Errore durante la rimozione dell'utente: " + username);
-                throw new IOException("Errore durante la rimozione dell'utente " + username);
+        job.addStep("account", "Eliminazione dell'utente " + username, () -> {
+            List<String> command = Arrays.asList("userdel", "-r", username);
+            printDebug("Esecuzione del comando per rimuovere l'utente: " + String.join(" ", command));
+            runCommand(command, null, USERDEL_TIMEOUT_MILLIS, "Errore durante la rimozione dell'utente " + username);
+        }, EnumSet.of(JobGraph.Resource.ACCOUNTS), "samba", "ftp");
+
+        job.addStep("reload", "Ricaricamento della lista utenti", this::loadUsers,
+                EnumSet.noneOf(JobGraph.Resource.class), "account");
+
+        job.run(listener);
+        printDebug("Utente rimosso con successo dal sistema: " + username);
+    }
+
+    // Avanzamento dei passi sui messaggi di debug
+    private JobGraph.ProgressListener debugProgress() {
+        return new JobGraph.ProgressListener() {
+            @Override
+            public void stepStarted(JobGraph.Step step) {
+                printDebug("Passo avviato: " + step.getDescription());
             }
-            printDebug("Utente rimosso con successo dal sistema: " + username);
-        } catch (InterruptedException e) {
-            printDebug("Comando interrotto durante la rimozione dell'utente: " + username);
-            Thread.currentThread().interrupt();
-            throw new IOException("Errore durante la rimozione dell'utente " + username, e);
-        }
 
-        printDebug("Ricaricamento della lista utenti.");
-        loadUsers(); // Ricarica la lista utenti
-        printDebug("Lista utenti ricaricata con successo.");
+            @Override
+            public void stepFinished(JobGraph.Step step) {
+                printDebug("Passo " + step.getStatus() + " in " + step.getDurationMillis() + " ms: " + step.getDescription()
+                        + (step.getError() != null ? " (" + step.getError().getMessage() + ")" : ""));
+            }
+        };
     }
 
     public void enableSamba(String username, String password) throws IOException {
@@ -323,9 +381,8 @@ public class UsersManager {
 
         // Percorsi Samba
         List<String> sambaPaths = sambaManager.getSharesByUser(username).stream()
-                .flatMap(share -> share.getProperties().stream()
-                        .filter(property -> property[0].equalsIgnoreCase("path"))
-                        .map(property -> property[1]))
+                .map(share -> share.getProperty("path"))
+                .filter(Objects::nonNull)
                 .collect(Collectors.toList());
         userPaths.addAll(sambaPaths);
         printDebug("Percorsi Samba trovati per l'utente: " + sambaPaths);
@@ -0,0 +1,142 @@
+package org.antonio;
+
+import java.io.*;
+import java.util.*;
+
+// Condivisioni gestite con il meccanismo "usershare" di Samba: ogni condivisione è un piccolo file in
+// /var/lib/samba/usershares che smbd legge alla connessione, senza riscrivere smb.conf né ricaricare
+// il servizio. Le usershare supportano solo percorso, commento, ACL e accesso guest: le altre
+// proprietà della condivisione (maschere, browsable, ...) non vengono salvate.
+public class UsershareStore {
+    private static final String GLOBAL_MAX_SHARES = "usershare max shares";
+    private static final String DEFAULT_MAX_SHARES = "100";
+    // Domini con cui "net usershare info" qualifica utenti e gruppi locali
+    private static final String UNIX_USER_DOMAIN = "Unix User";
+    private static final String UNIX_GROUP_DOMAIN = "Unix Group";
+
+    private final GroupIndex groupIndex; // Per riconoscere i gruppi nelle voci dell'ACL
+
+    public UsershareStore(GroupIndex groupIndex) {
+        this.groupIndex = groupIndex;
+    }
+
+    // Impostazione di [global] senza la quale smbd ignora le usershare
+    public static String[] requiredGlobalSetting() {
+        return new String[]{GLOBAL_MAX_SHARES, DEFAULT_MAX_SHARES};
+    }
+
+    // Legge tutte le usershare presenti (di qualsiasi proprietario)
+    public ArrayList<SmbCondBean> load() throws IOException {
+        return parse(run(Arrays.asList("net", "usershare", "info", "--long"), "Errore durante la lettura delle usershare"));
+    }
+
+    // L'output di "net usershare info" ha lo stesso formato di smb.conf
+    ArrayList<SmbCondBean> parse(String output) throws IOException {
+        ArrayList<SmbCondBean> result = new ArrayList<>();
+        for (SmbConfDocument.Section section : SmbConfParser.parse(output).getSections()) {
+            if (section.getKind() == SmbConfDocument.KIND_SHARE) {
+                result.add(toShare(section.getShare()));
+            }
+        }
+        return result;
+    }
+
+    // Crea o sostituisce la usershare con i dati della condivisione
+    public void save(SmbCondBean share) throws IOException {
+        String path = share.getProperty("path");
+        if (path == null || path.isEmpty()) {
+            throw new IOException("Percorso mancante per la usershare: " + share.getName());
+        }
+        String comment = share.getProperty("comment");
+        run(Arrays.asList("net", "usershare", "add", share.getName(), path, comment == null ? "" : comment,
+                        buildAcl(share), isYes(share.getProperty("guest ok")) ? "guest_ok=y" : "guest_ok=n"),
+                "Errore durante il salvataggio della usershare: " + share.getName());
+    }
+
+    public void delete(String shareName) throws IOException {
+        run(Arrays.asList("net", "usershare", "delete", shareName),
+                "Errore durante la rimozione della usershare: " + shareName);
+    }
+
+    // Converte la sezione letta da "net usershare info" nel modello usato per smb.conf
+    private SmbCondBean toShare(SmbCondBean raw) {
+        SmbCondBean share = new SmbCondBean(raw.getName());
+        share.addProperty("path", raw.getProperty("path") == null ? "" : raw.getProperty("path"));
+        if (raw.getProperty("comment") != null && !raw.getProperty("comment").isEmpty()) {
+            share.addProperty("comment", raw.getProperty("comment"));
+        }
+
+        boolean writable = false;
+        String acl = raw.getProperty("usershare_acl");
+        for (String entry : SmbConfParser.splitUserList(acl == null ? "" : acl)) {
+            int colon = entry.lastIndexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String principal = entry.substring(0, colon);
+            String access = entry.substring(colon + 1);
+            if (access.equalsIgnoreCase("D")) {
+                continue;
+            }
+            writable |= access.equalsIgnoreCase("F");
+            if (principal.equalsIgnoreCase("Everyone")) {
+                continue; // Condivisione senza "valid users"
+            }
+            share.addValidUser(toValidUser(principal));
+        }
+        share.addProperty("writable", writable ? "yes" : "no");
+        share.addProperty("guest ok", "y".equalsIgnoreCase(raw.getProperty("guest_ok")) ? "yes" : "no");
+        share.setStore(ShareStore.USERSHARE);
+        share.markClean();
+        return share;
+    }
+
+    // Voce di "valid users" per un nome dell'ACL. I nomi locali perdono il dominio ("Unix User" o
+    // "Unix Group" davanti alla barra rovesciata) e i gruppi tornano nella forma "@gruppo"; gli altri
+    // domini (es. winbind) restano nel nome, come Samba li accetta in "valid users".
+    String toValidUser(String principal) {
+        int separator = principal.lastIndexOf('\\');
+        String domain = separator < 0 ? null : principal.substring(0, separator);
+        String name = principal.substring(separator + 1);
+        if (UNIX_USER_DOMAIN.equalsIgnoreCase(domain)) {
+            return name;
+        }
+        if (UNIX_GROUP_DOMAIN.equalsIgnoreCase(domain)) {
+            return "@" + name;
+        }
+        String local = domain == null ? name : principal;
+        // Un gruppo che non è anche un utente (gli utenti compaiono almeno nel proprio gruppo primario)
+        if (groupIndex.exists(local) && groupIndex.getGroups(local).isEmpty()) {
+            return "@" + local;
+        }
+        return local;
+    }
+
+    // ACL nel formato di "net usershare add": utente:F (lettura/scrittura) o utente:R (sola lettura)
+    static String buildAcl(SmbCondBean share) {
+        boolean readOnly = !isYes(share.getProperty("writable")) && !isYes(share.getProperty("writeable"))
+                || isYes(share.getProperty("read only"));
+        String access = readOnly ? ":R" : ":F";
+        ArrayList<String> entries = new ArrayList<>();
+        for (String user : share.getValidUsers()) {
+            if (!user.trim().isEmpty()) {
+                // "net usershare" accetta i gruppi per nome, senza il prefisso "@"
+                entries.add(GroupIndex.groupName(user.trim()) + access);
+            }
+        }
+        // Senza "valid users" la condivisione è aperta a tutti: un'ACL vuota verrebbe rifiutata
+        if (entries.isEmpty()) {
+            entries.add("Everyone" + access);
+        }
+        // Nessuna virgola finale: net usershare la leggerebbe come una voce vuota ("malformed acl")
+        return String.join(",", entries);
+    }
+
+    private static boolean isYes(String value) {
+        return value != null && (value.equalsIgnoreCase("yes") || value.equalsIgnoreCase("true") || value.equals("1"));
+    }
+
+    private static String run(List<String> command, String errorMessage) throws IOException {
+        return CommandExecutor.getDefault().runChecked(command, errorMessage).getStdout();
+    }
+}
@@ -0,0 +1,124 @@
+package org.antonio;
+
+import java.io.IOException;
+import java.lang.foreign.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.VarHandle;
+import java.util.Locale;
+
+import static java.lang.foreign.ValueLayout.*;
+
+// Bind mount con chiamate dirette a mount(2) e umount2(2) della libc tramite java.lang.foreign
+// (definitivo da JDK 22). Ogni condivisione costa una system call invece di un processo. errno
+// viene catturato subito dopo la chiamata, prima che la JVM possa sovrascriverlo.
+public final class NativeMountBackend implements MountBackend {
+    private static final long MS_BIND = 4096; // <sys/mount.h>
+
+    private static final MethodHandle MOUNT;
+    private static final MethodHandle UMOUNT2;
+    private static final StructLayout CAPTURE_LAYOUT;
+    private static final VarHandle ERRNO;
+
+    static {
+        MethodHandle mount = null;
+        MethodHandle umount2 = null;
+        StructLayout captureLayout = null;
+        VarHandle errno = null;
+        if (System.getProperty("os.name", "").toLowerCase(Locale.ROOT).contains("linux")) {
+            try {
+                Linker linker = Linker.nativeLinker();
+                SymbolLookup libc = linker.defaultLookup();
+                Linker.Option captureErrno = Linker.Option.captureCallState("errno");
+                captureLayout = Linker.Option.captureStateLayout();
+                errno = captureLayout.varHandle(MemoryLayout.PathElement.groupElement("errno"));
+                // int mount(const char *source, const char *target, const char *fstype, unsigned long flags, const void *data)
+                mount = linker.downcallHandle(libc.find("mount").orElseThrow(),
+                        FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, ADDRESS, JAVA_LONG, ADDRESS), captureErrno);
+                // int umount2(const char *target, int flags)
+                umount2 = linker.downcallHandle(libc.find("umount2").orElseThrow(),
+                        FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT), captureErrno);
+            } catch (RuntimeException | LinkageError e) {
+                // Accesso nativo negato (--enable-native-access) o libc senza i simboli: si usano i processi
+                mount = null;
+                umount2 = null;
+            }
+        }
+        MOUNT = mount;
+        UMOUNT2 = umount2;
+        CAPTURE_LAYOUT = captureLayout;
+        ERRNO = errno;
+    }
+
+    public static boolean isAvailable() {
+        return MOUNT != null && UMOUNT2 != null;
+    }
+
+    @Override
+    public void bind(String source, String target) throws IOException {
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment capture = arena.allocate(CAPTURE_LAYOUT);
+            int result = (int) MOUNT.invokeExact(capture, arena.allocateFrom(source), arena.allocateFrom(target),
+                    MemorySegment.NULL, MS_BIND, MemorySegment.NULL);
+            if (result != 0) {
+                throw error("mount --bind " + source + " " + target, (int) ERRNO.get(capture, 0L));
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IOException("Errore nella chiamata a mount(2) per " + target, e);
+        }
+    }
+
+    @Override
+    public void unmount(String target) throws IOException {
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment capture = arena.allocate(CAPTURE_LAYOUT);
+            int result = (int) UMOUNT2.invokeExact(capture, arena.allocateFrom(target), 0);
+            if (result != 0) {
+                throw error("umount " + target, (int) ERRNO.get(capture, 0L));
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IOException("Errore nella chiamata a umount2(2) per " + target, e);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "mount(2) nativo";
+    }
+
+    // Messaggio leggibile per i valori di errno restituiti da mount(2) e umount2(2)
+    private static IOException error(String operation, int errno) {
+        String reason;
+        switch (errno) {
+            case 1:  // EPERM
+            case 13: // EACCES
+                reason = "permessi insufficienti (serve root o CAP_SYS_ADMIN)";
+                break;
+            case 2:  // ENOENT
+                reason = "percorso inesistente";
+                break;
+            case 16: // EBUSY
+                reason = "il punto di mount è in uso";
+                break;
+            case 20: // ENOTDIR
+                reason = "il percorso non è una directory";
+                break;
+            case 22: // EINVAL
+                reason = "non è un punto di mount o i parametri non sono validi";
+                break;
+            case 36: // ENAMETOOLONG
+                reason = "percorso troppo lungo";
+                break;
+            case 40: // ELOOP
+                reason = "troppi collegamenti simbolici nel percorso";
+                break;
+            default:
+                reason = "errore di sistema";
+                break;
+        }
+        return new IOException(operation + ": " + reason + " (errno " + errno + ")");
+    }
+}
@@ -0,0 +1,71 @@
+package org.antonio;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Salvataggio e rilettura di una usershare: utenti e gruppi devono tornare come erano in "valid users"
+class UsershareStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private UsershareStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        // alice ha il gruppo personale "alice", come con useradd: resta comunque un utente
+        Path group = Files.write(dir.resolve("group"),
+                Arrays.asList("alice:x:1000:", "devs:x:1001:alice"), StandardCharsets.UTF_8);
+        Path passwd = Files.write(dir.resolve("passwd"),
+                Arrays.asList("alice:x:1000:1000::/home/alice:/bin/sh"), StandardCharsets.UTF_8);
+        store = new UsershareStore(new GroupIndex(group, passwd));
+    }
+
+    private static SmbCondBean share() {
+        SmbCondBean share = new SmbCondBean("docs");
+        share.addProperty("path", "/srv/docs");
+        share.addProperty("writable", "yes");
+        share.addValidUser("alice");
+        share.addValidUser("@devs");
+        return share;
+    }
+
+    @Test
+    void aclListsUsersAndGroupsByName() {
+        assertEquals("alice:F,devs:F", UsershareStore.buildAcl(share()));
+    }
+
+    @Test
+    void qualifiedNamesFromNetRoundTrip() throws IOException {
+        // Come "net usershare info --long" riporta l'ACL scritta da buildAcl
+        String output = "[docs]\n"
+                + "path=/srv/docs\n"
+                + "comment=\n"
+                + "usershare_acl=Unix User\\alice:F,Unix Group\\devs:F,\n"
+                + "guest_ok=n\n";
+        List<SmbCondBean> loaded = store.parse(output);
+
+        assertEquals(1, loaded.size());
+        assertEquals(new LinkedHashSet<>(Arrays.asList("alice", "@devs")), loaded.get(0).getValidUsers());
+        assertEquals("yes", loaded.get(0).getProperty("writable"));
+        assertEquals(UsershareStore.buildAcl(share()), UsershareStore.buildAcl(loaded.get(0)));
+    }
+
+    @Test
+    void unqualifiedGroupIsResolvedThroughGroupIndex() {
+        assertEquals("alice", store.toValidUser("alice"));
+        assertEquals("@devs", store.toValidUser("devs"));
+        assertEquals("DOMAIN\\bob", store.toValidUser("DOMAIN\\bob"));
+    }
+}